@@ -16,8 +16,13 @@ import android.support.annotation.FloatRange;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.content.LocalBroadcastManager;
 
 import com.yalantis.ucrop.model.AspectRatio;
+import com.yalantis.ucrop.util.BitmapLoadUtils;
+import com.yalantis.ucrop.util.ImagePrefetcher;
+import com.yalantis.ucrop.view.CropImageView;
+import com.yalantis.ucrop.view.TransformImageView;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,13 +43,24 @@ public class UCrop {
 
     public static final String EXTRA_INPUT_URI = EXTRA_PREFIX + ".InputUri";
     public static final String EXTRA_OUTPUT_URI = EXTRA_PREFIX + ".OutputUri";
+    public static final String EXTRA_QUICK_OUTPUT_URI = EXTRA_PREFIX + ".QuickOutputUri";
+    public static final String EXTRA_OUTPUT_PENDING = EXTRA_PREFIX + ".OutputPending";
     public static final String EXTRA_OUTPUT_CROP_ASPECT_RATIO = EXTRA_PREFIX + ".CropAspectRatio";
     public static final String EXTRA_OUTPUT_IMAGE_WIDTH = EXTRA_PREFIX + ".ImageWidth";
     public static final String EXTRA_OUTPUT_IMAGE_HEIGHT = EXTRA_PREFIX + ".ImageHeight";
     public static final String EXTRA_OUTPUT_OFFSET_X = EXTRA_PREFIX + ".OffsetX";
     public static final String EXTRA_OUTPUT_OFFSET_Y = EXTRA_PREFIX + ".OffsetY";
+    public static final String EXTRA_OUTPUT_ANGLE = EXTRA_PREFIX + ".Angle";
+    public static final String EXTRA_OUTPUT_EXIF_ORIENTATION = EXTRA_PREFIX + ".ExifOrientation";
+    public static final String EXTRA_OUTPUT_RESIZE_SCALE = EXTRA_PREFIX + ".ResizeScale";
     public static final String EXTRA_ERROR = EXTRA_PREFIX + ".Error";
 
+    /**
+     * Local broadcast with the full resolution result of a two-phase crop, see {@link Options#setQuickOutputUri(Uri)}.
+     * It has the same extras as a result Intent.
+     */
+    public static final String ACTION_OUTPUT_FINISHED = EXTRA_PREFIX + ".action.OutputFinished";
+
     public static final String EXTRA_ASPECT_RATIO_X = EXTRA_PREFIX + ".AspectRatioX";
     public static final String EXTRA_ASPECT_RATIO_Y = EXTRA_PREFIX + ".AspectRatioY";
 
@@ -202,6 +218,24 @@ public class UCrop {
         return getFragment();
     }
 
+    /**
+     * Starts loading the image in background, so the crop screen started later with the same source
+     * and options shows it right away. Must be called on the main thread.
+     *
+     * @param source  Uri for image to crop
+     * @param options options that will be passed to {@link #withOptions(Options)}, can be null
+     */
+    public static void prefetch(@NonNull Context context, @NonNull Uri source, @Nullable Options options) {
+        Bundle bundle = options != null ? options.getOptionBundle() : new Bundle();
+        int maxBitmapSize = bundle.getInt(Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE);
+        if (maxBitmapSize <= 0) {
+            maxBitmapSize = BitmapLoadUtils.calculateMaxBitmapSize(context);
+        }
+        int previewQuality = bundle.getInt(Options.EXTRA_PREVIEW_QUALITY, TransformImageView.DEFAULT_PREVIEW_QUALITY);
+
+        ImagePrefetcher.prefetch(context, source, maxBitmapSize, previewQuality);
+    }
+
     /**
      * Retrieve cropped image Uri from the result Intent
      *
@@ -212,6 +246,26 @@ public class UCrop {
         return intent.getParcelableExtra(EXTRA_OUTPUT_URI);
     }
 
+    /**
+     * Retrieve Uri of the screen resolution crop from the result Intent of a two-phase crop
+     *
+     * @param intent crop result intent
+     */
+    @Nullable
+    public static Uri getQuickOutput(@NonNull Intent intent) {
+        return intent.getParcelableExtra(EXTRA_QUICK_OUTPUT_URI);
+    }
+
+    /**
+     * Check whether the output Uri is still being written, its result will be sent as
+     * {@link #ACTION_OUTPUT_FINISHED} local broadcast
+     *
+     * @param intent crop result intent
+     */
+    public static boolean isOutputPending(@NonNull Intent intent) {
+        return intent.getBooleanExtra(EXTRA_OUTPUT_PENDING, false);
+    }
+
     /**
      * Retrieve the width of the cropped image
      *
@@ -240,6 +294,33 @@ public class UCrop {
         return intent.getParcelableExtra(EXTRA_OUTPUT_CROP_ASPECT_RATIO);
     }
 
+    /**
+     * Retrieve rotation angle of the crop, set only if {@link Options#setGeometryOnly(boolean)} was used
+     *
+     * @param intent crop result intent
+     */
+    public static float getOutputAngle(@NonNull Intent intent) {
+        return intent.getFloatExtra(EXTRA_OUTPUT_ANGLE, 0);
+    }
+
+    /**
+     * Retrieve exif orientation of the source, set only if {@link Options#setGeometryOnly(boolean)} was used
+     *
+     * @param intent crop result intent
+     */
+    public static int getOutputExifOrientation(@NonNull Intent intent) {
+        return intent.getIntExtra(EXTRA_OUTPUT_EXIF_ORIENTATION, -1);
+    }
+
+    /**
+     * Retrieve scale that fits the crop into max result size, set only if {@link Options#setGeometryOnly(boolean)} was used
+     *
+     * @param intent crop result intent
+     */
+    public static float getOutputResizeScale(@NonNull Intent intent) {
+        return intent.getFloatExtra(EXTRA_OUTPUT_RESIZE_SCALE, 1);
+    }
+
     /**
      * Method retrieves error from the result intent.
      *
@@ -252,6 +333,13 @@ public class UCrop {
     }
 
 
+    /**
+     * Sends the full resolution result of a two-phase crop, the screen that started it is closed by then.
+     */
+    static void sendOutputFinished(@NonNull Context context, @NonNull Intent result) {
+        LocalBroadcastManager.getInstance(context).sendBroadcast(result.setAction(ACTION_OUTPUT_FINISHED));
+    }
+
     /**
      * Class that helps to setup advanced configs that are not commonly used.
      * Use it with method {@link #withOptions(Options)}
@@ -264,6 +352,8 @@ public class UCrop {
         public static final String EXTRA_ALLOWED_GESTURES = EXTRA_PREFIX + ".AllowedGestures";
 
         public static final String EXTRA_MAX_BITMAP_SIZE = EXTRA_PREFIX + ".MaxBitmapSize";
+        public static final String EXTRA_PREVIEW_QUALITY = EXTRA_PREFIX + ".PreviewQuality";
+        public static final String EXTRA_GEOMETRY_ONLY = EXTRA_PREFIX + ".GeometryOnly";
         public static final String EXTRA_MAX_SCALE_MULTIPLIER = EXTRA_PREFIX + ".MaxScaleMultiplier";
         public static final String EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION = EXTRA_PREFIX + ".ImageToCropBoundsAnimDuration";
 
@@ -361,6 +451,40 @@ public class UCrop {
             mOptionBundle.putInt(EXTRA_MAX_BITMAP_SIZE, maxBitmapSize);
         }
 
+        /**
+         * Setter for bitmap config of the image shown in the view. Cropped image is always
+         * processed from the source file, so this does not affect output quality.
+         *
+         * @param previewQuality - {@link TransformImageView#PREVIEW_QUALITY_FULL} (default) or
+         *                       {@link TransformImageView#PREVIEW_QUALITY_LOW_MEMORY}
+         */
+        public void setPreviewQuality(@TransformImageView.PreviewQuality int previewQuality) {
+            mOptionBundle.putInt(EXTRA_PREVIEW_QUALITY, previewQuality);
+        }
+
+        /**
+         * Setter for two-phase crop. Image shown inside the crop bounds is saved to the quick output Uri
+         * at screen resolution and returned as the result at once, with the output Uri marked as pending
+         * (see {@link UCrop#isOutputPending(Intent)}). Full resolution crop goes on in the background and
+         * its result is sent as {@link UCrop#ACTION_OUTPUT_FINISHED} local broadcast.
+         *
+         * @param quickOutputUri - Uri for the screen resolution crop, must differ from the output Uri
+         */
+        public void setQuickOutputUri(@Nullable Uri quickOutputUri) {
+            mOptionBundle.putParcelable(EXTRA_QUICK_OUTPUT_URI, quickOutputUri);
+        }
+
+        /**
+         * Setter for geometry only mode, in which the image is neither cropped nor saved.
+         * Result holds the crop offsets and size in source pixels, rotation angle, exif orientation
+         * and resize scale instead, see {@link com.yalantis.ucrop.model.CropGeometry}. Output Uri is not set.
+         *
+         * @param geometryOnly - true to skip cropping the image
+         */
+        public void setGeometryOnly(boolean geometryOnly) {
+            mOptionBundle.putBoolean(EXTRA_GEOMETRY_ONLY, geometryOnly);
+        }
+
         /**
          * @param color - desired color of dimmed area around the crop bounds
          */
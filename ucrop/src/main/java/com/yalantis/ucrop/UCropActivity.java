@@ -1,6 +1,7 @@
 package com.yalantis.ucrop;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.PorterDuff;
@@ -34,7 +35,10 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.callback.CropGeometryCallback;
 import com.yalantis.ucrop.model.AspectRatio;
+import com.yalantis.ucrop.model.CropGeometry;
+import com.yalantis.ucrop.model.RetainedImageState;
 import com.yalantis.ucrop.util.SelectedStateListDrawable;
 import com.yalantis.ucrop.view.CropImageView;
 import com.yalantis.ucrop.view.GestureCropImageView;
@@ -106,6 +110,9 @@ public class UCropActivity extends AppCompatActivity {
 
     private Bitmap.CompressFormat mCompressFormat = DEFAULT_COMPRESS_FORMAT;
     private int mCompressQuality = DEFAULT_COMPRESS_QUALITY;
+    private boolean mGeometryOnly;
+    private Uri mQuickOutputUri;
+    private boolean mQuickResultDelivered, mResultDelivered;
     private int[] mAllowedGestures = new int[]{SCALE, ROTATE, ALL};
 
     @Override
@@ -168,14 +175,38 @@ public class UCropActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mGestureCropImageView != null) {
+            try {
+                mGestureCropImageView.resumeImageLoad();
+            } catch (Exception e) {
+                setResultError(e);
+                finish();
+            }
+        }
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
         if (mGestureCropImageView != null) {
             mGestureCropImageView.cancelAllAnimations();
+            // Don't spend network, CPU and memory on an image nobody is looking at
+            mGestureCropImageView.cancelImageLoad();
         }
     }
 
+    /**
+     * Loaded image and its transform are handed to the recreated activity, so it neither loads
+     * the image again nor loses the user's zoom, rotation and position.
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mGestureCropImageView != null ? mGestureCropImageView.retainImageState() : null;
+    }
+
     /**
      * This method extracts all data from the incoming intent and setups views properly.
      */
@@ -184,6 +215,14 @@ public class UCropActivity extends AppCompatActivity {
         Uri outputUri = intent.getParcelableExtra(UCrop.EXTRA_OUTPUT_URI);
         processOptions(intent);
 
+        RetainedImageState retainedState = (RetainedImageState) getLastCustomNonConfigurationInstance();
+        if (retainedState != null && retainedState.getImageUri().equals(inputUri)) {
+            mGestureCropImageView.restoreImageState(retainedState);
+            return;
+        }
+        if (retainedState != null) {
+            mGestureCropImageView.releaseImageState(retainedState);
+        }
         if (inputUri != null && outputUri != null) {
             try {
                 mGestureCropImageView.setImageUri(inputUri, outputUri);
@@ -212,6 +251,8 @@ public class UCropActivity extends AppCompatActivity {
         mCompressFormat = (compressFormat == null) ? DEFAULT_COMPRESS_FORMAT : compressFormat;
 
         mCompressQuality = intent.getIntExtra(UCrop.Options.EXTRA_COMPRESSION_QUALITY, UCropActivity.DEFAULT_COMPRESS_QUALITY);
+        mGeometryOnly = intent.getBooleanExtra(UCrop.Options.EXTRA_GEOMETRY_ONLY, false);
+        mQuickOutputUri = intent.getParcelableExtra(UCrop.EXTRA_QUICK_OUTPUT_URI);
 
         // Gestures options
         int[] allowedGestures = intent.getIntArrayExtra(UCrop.Options.EXTRA_ALLOWED_GESTURES);
@@ -221,6 +262,7 @@ public class UCropActivity extends AppCompatActivity {
 
         // Crop image view options
         mGestureCropImageView.setMaxBitmapSize(intent.getIntExtra(UCrop.Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE));
+        mGestureCropImageView.setPreviewQuality(intent.getIntExtra(UCrop.Options.EXTRA_PREVIEW_QUALITY, TransformImageView.DEFAULT_PREVIEW_QUALITY));
         mGestureCropImageView.setMaxScaleMultiplier(intent.getFloatExtra(UCrop.Options.EXTRA_MAX_SCALE_MULTIPLIER, CropImageView.DEFAULT_MAX_SCALE_MULTIPLIER));
         mGestureCropImageView.setImageToWrapCropBoundsAnimDuration(intent.getIntExtra(UCrop.Options.EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION, CropImageView.DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION));
 
@@ -347,7 +389,7 @@ public class UCropActivity extends AppCompatActivity {
         findViewById(R.id.ucrop_frame).setBackgroundColor(mRootViewBackgroundColor);
     }
 
-    private TransformImageView.TransformImageListener mImageListener = new TransformImageView.TransformImageListener() {
+    private TransformImageView.TransformImageListener mImageListener = new TransformImageView.PreviewTransformImageListener() {
         @Override
         public void onRotate(float currentAngle) {
             setAngleText(currentAngle);
@@ -358,6 +400,11 @@ public class UCropActivity extends AppCompatActivity {
             setScaleText(currentScale);
         }
 
+        @Override
+        public void onPreviewLoadComplete() {
+            mUCropView.animate().alpha(1).setDuration(300).setInterpolator(new AccelerateInterpolator());
+        }
+
         @Override
         public void onLoadComplete() {
             mUCropView.animate().alpha(1).setDuration(300).setInterpolator(new AccelerateInterpolator());
@@ -612,6 +659,28 @@ public class UCropActivity extends AppCompatActivity {
         mShowLoader = true;
         supportInvalidateOptionsMenu();
 
+        if (mGeometryOnly) {
+            mGestureCropImageView.calculateCropGeometry(new CropGeometryCallback() {
+
+                @Override
+                public void onCropGeometryCalculated(@NonNull CropGeometry cropGeometry) {
+                    setResultGeometry(cropGeometry, mGestureCropImageView.getTargetAspectRatio());
+                    finish();
+                }
+
+                @Override
+                public void onCropFailure(@NonNull Throwable t) {
+                    setResultError(t);
+                    finish();
+                }
+            });
+            return;
+        }
+        if (mQuickOutputUri != null) {
+            cropAndSaveImageInTwoPhases();
+            return;
+        }
+
         mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, new BitmapCropCallback() {
 
             @Override
@@ -628,6 +697,66 @@ public class UCropActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Activity is finished with the quick result, full resolution one is sent as a local broadcast.
+     * If the quick crop fails, activity waits for the full resolution one as usual.
+     */
+    private void cropAndSaveImageInTwoPhases() {
+        final Context appContext = getApplicationContext();
+        final Uri outputUri = getIntent().getParcelableExtra(UCrop.EXTRA_OUTPUT_URI);
+        final float resultAspectRatio = mGestureCropImageView.getTargetAspectRatio();
+
+        mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, mQuickOutputUri, new BitmapCropCallback() {
+
+            @Override
+            public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+                if (mResultDelivered) {
+                    return;
+                }
+                mQuickResultDelivered = true;
+                mResultDelivered = true;
+                setResultQuickUri(resultUri, outputUri, resultAspectRatio);
+                finish();
+            }
+
+            @Override
+            public void onCropFailure(@NonNull Throwable t) {
+                Log.w(TAG, "Quick crop failed, waiting for the full resolution one", t);
+            }
+        }, new BitmapCropCallback() {
+
+            @Override
+            public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+                if (mQuickResultDelivered) {
+                    UCrop.sendOutputFinished(appContext, new Intent()
+                            .putExtra(UCrop.EXTRA_OUTPUT_URI, resultUri)
+                            .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+                            .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_WIDTH, imageWidth)
+                            .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_HEIGHT, imageHeight)
+                            .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_X, offsetX)
+                            .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_Y, offsetY));
+                } else {
+                    mResultDelivered = true;
+                    setResultUri(resultUri, resultAspectRatio, offsetX, offsetY, imageWidth, imageHeight);
+                    finish();
+                }
+            }
+
+            @Override
+            public void onCropFailure(@NonNull Throwable t) {
+                if (mQuickResultDelivered) {
+                    UCrop.sendOutputFinished(appContext, new Intent()
+                            .putExtra(UCrop.EXTRA_OUTPUT_URI, outputUri)
+                            .putExtra(UCrop.EXTRA_ERROR, t));
+                } else {
+                    mResultDelivered = true;
+                    setResultError(t);
+                    finish();
+                }
+            }
+        });
+    }
+
     protected void setResultUri(Uri uri, float resultAspectRatio, int offsetX, int offsetY, int imageWidth, int imageHeight) {
         setResult(RESULT_OK, new Intent()
                 .putExtra(UCrop.EXTRA_OUTPUT_URI, uri)
@@ -639,6 +768,28 @@ public class UCropActivity extends AppCompatActivity {
         );
     }
 
+    protected void setResultQuickUri(Uri quickUri, Uri pendingUri, float resultAspectRatio) {
+        setResult(RESULT_OK, new Intent()
+                .putExtra(UCrop.EXTRA_QUICK_OUTPUT_URI, quickUri)
+                .putExtra(UCrop.EXTRA_OUTPUT_URI, pendingUri)
+                .putExtra(UCrop.EXTRA_OUTPUT_PENDING, true)
+                .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+        );
+    }
+
+    protected void setResultGeometry(CropGeometry cropGeometry, float resultAspectRatio) {
+        setResult(RESULT_OK, new Intent()
+                .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_WIDTH, cropGeometry.getImageWidth())
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_HEIGHT, cropGeometry.getImageHeight())
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_X, cropGeometry.getOffsetX())
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_Y, cropGeometry.getOffsetY())
+                .putExtra(UCrop.EXTRA_OUTPUT_ANGLE, cropGeometry.getAngle())
+                .putExtra(UCrop.EXTRA_OUTPUT_EXIF_ORIENTATION, cropGeometry.getExifOrientation())
+                .putExtra(UCrop.EXTRA_OUTPUT_RESIZE_SCALE, cropGeometry.getResizeScale())
+        );
+    }
+
     protected void setResultError(Throwable throwable) {
         setResult(UCrop.RESULT_ERROR, new Intent().putExtra(UCrop.EXTRA_ERROR, throwable));
     }
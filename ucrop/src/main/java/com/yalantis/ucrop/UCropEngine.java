@@ -0,0 +1,186 @@
+package com.yalantis.ucrop;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.yalantis.ucrop.model.CropResult;
+import com.yalantis.ucrop.model.CropSpec;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.model.LoadResult;
+import com.yalantis.ucrop.model.OutputSpec;
+import com.yalantis.ucrop.task.BitmapCropTask;
+import com.yalantis.ucrop.task.BitmapLoader;
+import com.yalantis.ucrop.task.TaskExecutors;
+import com.yalantis.ucrop.task.TaskFuture;
+import com.yalantis.ucrop.util.BitmapLoadUtils;
+import com.yalantis.ucrop.util.CropGeometryUtils;
+import com.yalantis.ucrop.util.ImageHeaderParser;
+import com.yalantis.ucrop.view.TransformImageView;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * Crops an image file without any Activity, View or decoded preview, for callers that already
+ * know the crop geometry (e.g. a background service).
+ * <p/>
+ * Source is cropped by the same native code as in {@link BitmapCropTask}, exif orientation
+ * is read from the file header and applied, other exif data is carried into a JPEG output.
+ * {@link #crop(String, CropSpec, OutputSpec)} is blocking, so it must not be called on the main thread,
+ * async variants return a {@link TaskFuture} instead.
+ */
+public class UCropEngine {
+
+    private static final String TAG = "UCropEngine";
+
+    private UCropEngine() {
+    }
+
+    /**
+     * @param sourcePath - path of a local image file
+     * @param cropSpec   - crop geometry in source pixels
+     * @param outputSpec - output file and format
+     * @throws IOException              - if source can't be read or the crop can't be saved
+     * @throws IllegalArgumentException - if crop rect is empty or out of the image bounds
+     */
+    @NonNull
+    public static CropResult crop(@NonNull String sourcePath, @NonNull CropSpec cropSpec,
+                                  @NonNull OutputSpec outputSpec) throws IOException {
+        RectF cropRect = cropSpec.getCropRect();
+        if (cropRect.isEmpty()) {
+            throw new IllegalArgumentException("Crop rect is empty: " + cropRect);
+        }
+
+        ByteBuffer header = mapHeader(sourcePath);
+        ImageInfo imageInfo = new ImageHeaderParser(header.duplicate()).getImageInfo();
+        if (!imageInfo.hasSize()) {
+            // Format the header parser doesn't know, decoder reads its bounds
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(sourcePath, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("Bounds for bitmap could not be retrieved from: " + sourcePath);
+            }
+            imageInfo.setSize(options.outWidth, options.outHeight);
+        }
+
+        int exifOrientation = imageInfo.getExifOrientation();
+        int exifDegrees = BitmapLoadUtils.exifToDegrees(exifOrientation);
+        float[] imageSize = CropGeometryUtils.getRotatedImageSize(imageInfo.getWidth(), imageInfo.getHeight(),
+                exifDegrees, cropSpec.getAngle());
+        if (!CropGeometryUtils.isCropWithinImage(cropRect.left, cropRect.top, cropRect.right, cropRect.bottom, imageSize)) {
+            throw new IllegalArgumentException("Crop rect " + cropRect + " is out of image bounds "
+                    + imageSize[0] + "x" + imageSize[1]);
+        }
+
+        // Read before cropping, output path may point to the source file
+        byte[] originalExif = null;
+        if (outputSpec.getCompressFormat().equals(Bitmap.CompressFormat.JPEG)) {
+            originalExif = readExifSegment(header.duplicate());
+        }
+
+        float resizeScale = CropGeometryUtils.getResizeScale(cropRect.width(), cropRect.height(),
+                outputSpec.getMaxWidth(), outputSpec.getMaxHeight());
+        int[] bounds = CropGeometryUtils.getScaledCropBounds(cropRect.left, cropRect.top,
+                cropRect.width(), cropRect.height(), resizeScale);
+
+        boolean cropped = BitmapCropTask.cropWithExif(sourcePath, outputSpec.getOutputPath(),
+                bounds[0], bounds[1], bounds[2], bounds[3],
+                cropSpec.getAngle(), resizeScale,
+                outputSpec.getCompressFormat().ordinal(), outputSpec.getCompressQuality(),
+                exifDegrees, BitmapLoadUtils.exifToTranslation(exifOrientation),
+                originalExif);
+        if (!cropped) {
+            throw new IOException("Image could not be cropped: " + sourcePath);
+        }
+        return new CropResult(outputSpec.getOutputPath(), bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    /**
+     * Non-blocking variant of {@link #crop(String, CropSpec, OutputSpec)}, runs on the CPU pool of {@link TaskExecutors}.
+     * Native crop itself can't be interrupted, cancelling a running crop only drops its result.
+     */
+    @NonNull
+    public static TaskFuture<CropResult> cropAsync(@NonNull final String sourcePath, @NonNull final CropSpec cropSpec,
+                                                   @NonNull final OutputSpec outputSpec,
+                                                   @TaskExecutors.Priority int priority) {
+        TaskFuture<CropResult> future = new TaskFuture<>(new Callable<CropResult>() {
+            @Override
+            public CropResult call() throws Exception {
+                return crop(sourcePath, cropSpec, outputSpec);
+            }
+        });
+        TaskExecutors.getCpuExecutor(priority).execute(future);
+        return future;
+    }
+
+    /**
+     * Loads an image the way the crop view does, without delivering previews. Remote and not directly
+     * readable images are downloaded or copied to the output Uri first, see {@link LoadResult#getImageInputPath()}.
+     * Cancelling the future stops the download, copy or decode in progress.
+     *
+     * @param outputUri - destination for a downloaded or copied image, may be null for a file Uri
+     */
+    @NonNull
+    public static TaskFuture<LoadResult> loadAsync(@NonNull Context context, @NonNull Uri inputUri, @Nullable Uri outputUri,
+                                                   int requiredWidth, int requiredHeight,
+                                                   @TaskExecutors.Priority final int priority) {
+        final BitmapLoader loader = new BitmapLoader(context.getApplicationContext(), inputUri, outputUri,
+                requiredWidth, requiredHeight, TransformImageView.DEFAULT_PREVIEW_QUALITY, null);
+        final TaskFuture<LoadResult> future = new TaskFuture<LoadResult>(loader) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                loader.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        if ("file".equals(inputUri.getScheme())) {
+            TaskExecutors.getCpuExecutor(priority).execute(future);
+            return future;
+        }
+
+        // Download or copy holds an I/O thread only, decode is queued to the CPU pool after it
+        TaskExecutors.getIoExecutor(priority).execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isCancelled()) {
+                    loader.prepareInput();
+                }
+                TaskExecutors.getCpuExecutor(priority).execute(future);
+            }
+        });
+        return future;
+    }
+
+    @NonNull
+    private static ByteBuffer mapHeader(@NonNull String sourcePath) throws IOException {
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(sourcePath);
+            FileChannel channel = stream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            BitmapLoadUtils.close(stream);
+        }
+    }
+
+    @Nullable
+    private static byte[] readExifSegment(@NonNull ByteBuffer header) {
+        try {
+            return new ImageHeaderParser(header).getExifSegment();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "readExifSegment: " + e.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -14,6 +14,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -25,7 +26,10 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.callback.CropGeometryCallback;
 import com.yalantis.ucrop.model.AspectRatio;
+import com.yalantis.ucrop.model.CropGeometry;
+import com.yalantis.ucrop.model.RetainedImageState;
 import com.yalantis.ucrop.util.SelectedStateListDrawable;
 import com.yalantis.ucrop.view.CropImageView;
 import com.yalantis.ucrop.view.GestureCropImageView;
@@ -64,7 +68,9 @@ public class UCropFragment extends Fragment {
     private static final int TABS_COUNT = 3;
     private static final int SCALE_WIDGET_SENSITIVITY_COEFFICIENT = 15000;
     private static final int ROTATE_WIDGET_SENSITIVITY_COEFFICIENT = 42;
+    private static final String RETAINED_STATE_TAG_PREFIX = TAG + ".RetainedState:";
     private UCropFragmentCallback callback;
+    private RetainedStateFragment mRetainedStateFragment;
 
     private int mActiveWidgetColor;
     @ColorInt
@@ -84,6 +90,9 @@ public class UCropFragment extends Fragment {
 
     private Bitmap.CompressFormat mCompressFormat = DEFAULT_COMPRESS_FORMAT;
     private int mCompressQuality = DEFAULT_COMPRESS_QUALITY;
+    private boolean mGeometryOnly;
+    private Uri mQuickOutputUri;
+    private boolean mQuickResultDelivered, mResultDelivered;
     private int[] mAllowedGestures = new int[]{SCALE, ROTATE, ALL};
 
     public static UCropFragment newInstance(Bundle uCrop) {
@@ -107,6 +116,18 @@ public class UCropFragment extends Fragment {
         this.callback = callback;
     }
 
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // Holder is added up front, fragment state is already saved by the time the view is destroyed
+        String retainedStateTag = RETAINED_STATE_TAG_PREFIX + (getTag() != null ? getTag() : String.valueOf(getId()));
+        mRetainedStateFragment = (RetainedStateFragment) getFragmentManager().findFragmentByTag(retainedStateTag);
+        if (mRetainedStateFragment == null) {
+            mRetainedStateFragment = new RetainedStateFragment();
+            getFragmentManager().beginTransaction().add(mRetainedStateFragment, retainedStateTag).commit();
+        }
+    }
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -154,11 +175,58 @@ public class UCropFragment extends Fragment {
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        if (getActivity() != null && getActivity().isChangingConfigurations() && mGestureCropImageView != null) {
+            mRetainedStateFragment.mImageState = mGestureCropImageView.retainImageState();
+        }
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (getActivity() != null && !getActivity().isChangingConfigurations() && getFragmentManager() != null) {
+            getFragmentManager().beginTransaction().remove(mRetainedStateFragment).commitAllowingStateLoss();
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (mGestureCropImageView != null) {
+            try {
+                mGestureCropImageView.resumeImageLoad();
+            } catch (Exception e) {
+                callback.onCropFinish(getError(e));
+            }
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (mGestureCropImageView != null) {
+            mGestureCropImageView.cancelAllAnimations();
+            // Don't spend network, CPU and memory on an image nobody is looking at
+            mGestureCropImageView.cancelImageLoad();
+        }
+    }
+
     private void setImageData(@NonNull Bundle bundle) {
         Uri inputUri = bundle.getParcelable(UCrop.EXTRA_INPUT_URI);
         Uri outputUri = bundle.getParcelable(UCrop.EXTRA_OUTPUT_URI);
         processOptions(bundle);
 
+        RetainedImageState retainedState = mRetainedStateFragment.mImageState;
+        mRetainedStateFragment.mImageState = null;
+        if (retainedState != null && retainedState.getImageUri().equals(inputUri)) {
+            mGestureCropImageView.restoreImageState(retainedState);
+            return;
+        }
+        if (retainedState != null) {
+            mGestureCropImageView.releaseImageState(retainedState);
+        }
         if (inputUri != null && outputUri != null) {
             try {
                 mGestureCropImageView.setImageUri(inputUri, outputUri);
@@ -185,6 +253,8 @@ public class UCropFragment extends Fragment {
         mCompressFormat = (compressFormat == null) ? DEFAULT_COMPRESS_FORMAT : compressFormat;
 
         mCompressQuality = bundle.getInt(UCrop.Options.EXTRA_COMPRESSION_QUALITY, UCropActivity.DEFAULT_COMPRESS_QUALITY);
+        mGeometryOnly = bundle.getBoolean(UCrop.Options.EXTRA_GEOMETRY_ONLY, false);
+        mQuickOutputUri = bundle.getParcelable(UCrop.EXTRA_QUICK_OUTPUT_URI);
 
         // Gestures options
         int[] allowedGestures = bundle.getIntArray(UCrop.Options.EXTRA_ALLOWED_GESTURES);
@@ -194,6 +264,7 @@ public class UCropFragment extends Fragment {
 
         // Crop image view options
         mGestureCropImageView.setMaxBitmapSize(bundle.getInt(UCrop.Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE));
+        mGestureCropImageView.setPreviewQuality(bundle.getInt(UCrop.Options.EXTRA_PREVIEW_QUALITY, TransformImageView.DEFAULT_PREVIEW_QUALITY));
         mGestureCropImageView.setMaxScaleMultiplier(bundle.getFloat(UCrop.Options.EXTRA_MAX_SCALE_MULTIPLIER, CropImageView.DEFAULT_MAX_SCALE_MULTIPLIER));
         mGestureCropImageView.setImageToWrapCropBoundsAnimDuration(bundle.getInt(UCrop.Options.EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION, CropImageView.DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION));
 
@@ -254,7 +325,7 @@ public class UCropFragment extends Fragment {
         view.findViewById(R.id.ucrop_frame).setBackgroundColor(mRootViewBackgroundColor);
     }
 
-    private TransformImageView.TransformImageListener mImageListener = new TransformImageView.TransformImageListener() {
+    private TransformImageView.TransformImageListener mImageListener = new TransformImageView.PreviewTransformImageListener() {
         @Override
         public void onRotate(float currentAngle) {
             setAngleText(currentAngle);
@@ -265,6 +336,11 @@ public class UCropFragment extends Fragment {
             setScaleText(currentScale);
         }
 
+        @Override
+        public void onPreviewLoadComplete() {
+            mUCropView.animate().alpha(1).setDuration(300).setInterpolator(new AccelerateInterpolator());
+        }
+
         @Override
         public void onLoadComplete() {
             mUCropView.animate().alpha(1).setDuration(300).setInterpolator(new AccelerateInterpolator());
@@ -497,6 +573,27 @@ public class UCropFragment extends Fragment {
         mBlockingView.setClickable(true);
         callback.loadingProgress(true);
 
+        if (mGeometryOnly) {
+            mGestureCropImageView.calculateCropGeometry(new CropGeometryCallback() {
+
+                @Override
+                public void onCropGeometryCalculated(@NonNull CropGeometry cropGeometry) {
+                    callback.onCropFinish(getGeometryResult(cropGeometry, mGestureCropImageView.getTargetAspectRatio()));
+                    callback.loadingProgress(false);
+                }
+
+                @Override
+                public void onCropFailure(@NonNull Throwable t) {
+                    callback.onCropFinish(getError(t));
+                }
+            });
+            return;
+        }
+        if (mQuickOutputUri != null) {
+            cropAndSaveImageInTwoPhases();
+            return;
+        }
+
         mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, new BitmapCropCallback() {
 
             @Override
@@ -512,6 +609,58 @@ public class UCropFragment extends Fragment {
         });
     }
 
+    /**
+     * Quick result is passed to the callback, full resolution one is sent as a local broadcast.
+     * If the quick crop fails, the full resolution one is passed to the callback as usual.
+     */
+    private void cropAndSaveImageInTwoPhases() {
+        final Context appContext = getContext().getApplicationContext();
+        final Uri outputUri = getArguments().getParcelable(UCrop.EXTRA_OUTPUT_URI);
+        final float resultAspectRatio = mGestureCropImageView.getTargetAspectRatio();
+
+        mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, mQuickOutputUri, new BitmapCropCallback() {
+
+            @Override
+            public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+                if (mResultDelivered) {
+                    return;
+                }
+                mQuickResultDelivered = true;
+                mResultDelivered = true;
+                callback.onCropFinish(getQuickResult(resultUri, outputUri, resultAspectRatio));
+                callback.loadingProgress(false);
+            }
+
+            @Override
+            public void onCropFailure(@NonNull Throwable t) {
+                Log.w(TAG, "Quick crop failed, waiting for the full resolution one", t);
+            }
+        }, new BitmapCropCallback() {
+
+            @Override
+            public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+                if (mQuickResultDelivered) {
+                    UCrop.sendOutputFinished(appContext,
+                            getResult(resultUri, resultAspectRatio, offsetX, offsetY, imageWidth, imageHeight).mResultData);
+                } else {
+                    mResultDelivered = true;
+                    callback.onCropFinish(getResult(resultUri, resultAspectRatio, offsetX, offsetY, imageWidth, imageHeight));
+                    callback.loadingProgress(false);
+                }
+            }
+
+            @Override
+            public void onCropFailure(@NonNull Throwable t) {
+                if (mQuickResultDelivered) {
+                    UCrop.sendOutputFinished(appContext, getError(t).mResultData.putExtra(UCrop.EXTRA_OUTPUT_URI, outputUri));
+                } else {
+                    mResultDelivered = true;
+                    callback.onCropFinish(getError(t));
+                }
+            }
+        });
+    }
+
     protected UCropResult getResult(Uri uri, float resultAspectRatio, int offsetX, int offsetY, int imageWidth, int imageHeight) {
         return new UCropResult(RESULT_OK, new Intent()
                 .putExtra(UCrop.EXTRA_OUTPUT_URI, uri)
@@ -523,10 +672,47 @@ public class UCropFragment extends Fragment {
         );
     }
 
+    protected UCropResult getQuickResult(Uri quickUri, Uri pendingUri, float resultAspectRatio) {
+        return new UCropResult(RESULT_OK, new Intent()
+                .putExtra(UCrop.EXTRA_QUICK_OUTPUT_URI, quickUri)
+                .putExtra(UCrop.EXTRA_OUTPUT_URI, pendingUri)
+                .putExtra(UCrop.EXTRA_OUTPUT_PENDING, true)
+                .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+        );
+    }
+
+    protected UCropResult getGeometryResult(CropGeometry cropGeometry, float resultAspectRatio) {
+        return new UCropResult(RESULT_OK, new Intent()
+                .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_WIDTH, cropGeometry.getImageWidth())
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_HEIGHT, cropGeometry.getImageHeight())
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_X, cropGeometry.getOffsetX())
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_Y, cropGeometry.getOffsetY())
+                .putExtra(UCrop.EXTRA_OUTPUT_ANGLE, cropGeometry.getAngle())
+                .putExtra(UCrop.EXTRA_OUTPUT_EXIF_ORIENTATION, cropGeometry.getExifOrientation())
+                .putExtra(UCrop.EXTRA_OUTPUT_RESIZE_SCALE, cropGeometry.getResizeScale())
+        );
+    }
+
     protected UCropResult getError(Throwable throwable) {
         return new UCropResult(UCrop.RESULT_ERROR, new Intent().putExtra(UCrop.EXTRA_ERROR, throwable));
     }
 
+    /**
+     * Keeps the loaded image and its transform while the activity is recreated after a configuration change.
+     */
+    public static class RetainedStateFragment extends Fragment {
+
+        RetainedImageState mImageState;
+
+        @Override
+        public void onCreate(@Nullable Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            setRetainInstance(true);
+        }
+
+    }
+
     public class UCropResult {
 
         public int mResultCode;
@@ -0,0 +1,17 @@
+package com.yalantis.ucrop.callback;
+
+import android.support.annotation.NonNull;
+
+import com.yalantis.ucrop.model.BatchMetrics;
+import com.yalantis.ucrop.model.CropJob;
+import com.yalantis.ucrop.model.CropResult;
+
+public interface BatchCropCallback {
+
+    void onJobCompleted(@NonNull CropJob job, @NonNull CropResult result);
+
+    void onJobFailed(@NonNull CropJob job, @NonNull Throwable t);
+
+    void onBatchFinished(@NonNull BatchMetrics metrics);
+
+}
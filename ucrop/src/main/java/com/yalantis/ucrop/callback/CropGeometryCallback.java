@@ -0,0 +1,13 @@
+package com.yalantis.ucrop.callback;
+
+import android.support.annotation.NonNull;
+
+import com.yalantis.ucrop.model.CropGeometry;
+
+public interface CropGeometryCallback {
+
+    void onCropGeometryCalculated(@NonNull CropGeometry cropGeometry);
+
+    void onCropFailure(@NonNull Throwable t);
+
+}
@@ -0,0 +1,16 @@
+package com.yalantis.ucrop.callback;
+
+import android.support.annotation.NonNull;
+
+import com.yalantis.ucrop.model.ImageInfo;
+
+/**
+ * Optional addition to {@link BitmapLoadCallback}, implemented by the same object:
+ * header info of the source image is delivered right before
+ * {@link BitmapLoadCallback#onBitmapLoaded(android.graphics.Bitmap, com.yalantis.ucrop.model.ExifInfo, String, String)}.
+ */
+public interface ImageInfoCallback {
+
+    void onImageInfoLoaded(@NonNull ImageInfo imageInfo);
+
+}
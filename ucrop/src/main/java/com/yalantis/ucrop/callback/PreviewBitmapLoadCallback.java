@@ -0,0 +1,17 @@
+package com.yalantis.ucrop.callback;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.yalantis.ucrop.model.ExifInfo;
+
+/**
+ * Optional extension of {@link BitmapLoadCallback}: preview (embedded thumbnail, cached or partially
+ * downloaded image) is delivered before the full bitmap, which comes in
+ * {@link #onBitmapLoaded(Bitmap, ExifInfo, String, String)} as usual.
+ */
+public interface PreviewBitmapLoadCallback extends BitmapLoadCallback {
+
+    void onPreviewLoaded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo);
+
+}
@@ -0,0 +1,62 @@
+package com.yalantis.ucrop.model;
+
+/**
+ * Totals of a finished batch, see {@link com.yalantis.ucrop.task.BatchCropRunner}.
+ */
+public class BatchMetrics {
+
+    private final int mJobCount;
+    private final int mSucceededCount, mFailedCount;
+    private final long mElapsedMillis;
+    private final long mOutputPixels;
+    private final int mMaxConcurrentJobs;
+
+    public BatchMetrics(int jobCount, int succeededCount, int failedCount,
+                        long elapsedMillis, long outputPixels, int maxConcurrentJobs) {
+        mJobCount = jobCount;
+        mSucceededCount = succeededCount;
+        mFailedCount = failedCount;
+        mElapsedMillis = elapsedMillis;
+        mOutputPixels = outputPixels;
+        mMaxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public int getJobCount() {
+        return mJobCount;
+    }
+
+    public int getSucceededCount() {
+        return mSucceededCount;
+    }
+
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    /**
+     * @return - total amount of pixels in all cropped images
+     */
+    public long getOutputPixels() {
+        return mOutputPixels;
+    }
+
+    /**
+     * @return - largest number of jobs that were running at the same time
+     */
+    public int getMaxConcurrentJobs() {
+        return mMaxConcurrentJobs;
+    }
+
+    public float getJobsPerSecond() {
+        return mElapsedMillis > 0 ? mSucceededCount * 1000f / mElapsedMillis : 0;
+    }
+
+    public float getMegapixelsPerSecond() {
+        return mElapsedMillis > 0 ? mOutputPixels / 1000f / mElapsedMillis : 0;
+    }
+
+}
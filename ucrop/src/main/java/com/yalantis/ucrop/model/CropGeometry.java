@@ -0,0 +1,67 @@
+package com.yalantis.ucrop.model;
+
+/**
+ * Crop area chosen by the user, for callers that crop the original image themselves.
+ * <p/>
+ * Offsets and size are in source pixels, in the space {@link com.yalantis.ucrop.task.BitmapCropTask}
+ * crops in: the source is first turned by its exif orientation, then rotated by the angle, and the
+ * crop area lies within the bounding box of the result. Max result size is not applied to them,
+ * resize scale tells how much the crop should be scaled down afterwards to fit it.
+ */
+public class CropGeometry {
+
+    private final int mOffsetX, mOffsetY;
+    private final int mImageWidth, mImageHeight;
+    private final float mAngle;
+    private final int mExifOrientation;
+    private final float mResizeScale;
+
+    public CropGeometry(int offsetX, int offsetY, int imageWidth, int imageHeight,
+                        float angle, int exifOrientation, float resizeScale) {
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mAngle = angle;
+        mExifOrientation = exifOrientation;
+        mResizeScale = resizeScale;
+    }
+
+    public int getOffsetX() {
+        return mOffsetX;
+    }
+
+    public int getOffsetY() {
+        return mOffsetY;
+    }
+
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /**
+     * @return - rotation in degrees applied after exif orientation
+     */
+    public float getAngle() {
+        return mAngle;
+    }
+
+    /**
+     * @return - exif orientation tag as read from the source, see {@link android.media.ExifInterface}
+     */
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    /**
+     * @return - scale to fit the crop into max result size, 1 if it fits already
+     */
+    public float getResizeScale() {
+        return mResizeScale;
+    }
+
+}
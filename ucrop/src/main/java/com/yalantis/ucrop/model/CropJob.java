@@ -0,0 +1,35 @@
+package com.yalantis.ucrop.model;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Single crop of a batch, see {@link com.yalantis.ucrop.task.BatchCropRunner}.
+ */
+public class CropJob {
+
+    private final String mSourcePath;
+    private final CropSpec mCropSpec;
+    private final OutputSpec mOutputSpec;
+
+    public CropJob(@NonNull String sourcePath, @NonNull CropSpec cropSpec, @NonNull OutputSpec outputSpec) {
+        mSourcePath = sourcePath;
+        mCropSpec = cropSpec;
+        mOutputSpec = outputSpec;
+    }
+
+    @NonNull
+    public String getSourcePath() {
+        return mSourcePath;
+    }
+
+    @NonNull
+    public CropSpec getCropSpec() {
+        return mCropSpec;
+    }
+
+    @NonNull
+    public OutputSpec getOutputSpec() {
+        return mOutputSpec;
+    }
+
+}
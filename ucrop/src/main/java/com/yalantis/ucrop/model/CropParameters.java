@@ -13,11 +13,19 @@ public class CropParameters {
     private int mCompressQuality;
     private String mImageInputPath, mImageOutputPath;
     private ExifInfo mExifInfo;
+    private ImageInfo mImageInfo;
 
 
     public CropParameters(int maxResultImageSizeX, int maxResultImageSizeY,
                           Bitmap.CompressFormat compressFormat, int compressQuality,
                           String imageInputPath, String imageOutputPath, ExifInfo exifInfo) {
+        this(maxResultImageSizeX, maxResultImageSizeY, compressFormat, compressQuality,
+                imageInputPath, imageOutputPath, exifInfo, null);
+    }
+
+    public CropParameters(int maxResultImageSizeX, int maxResultImageSizeY,
+                          Bitmap.CompressFormat compressFormat, int compressQuality,
+                          String imageInputPath, String imageOutputPath, ExifInfo exifInfo, ImageInfo imageInfo) {
         mMaxResultImageSizeX = maxResultImageSizeX;
         mMaxResultImageSizeY = maxResultImageSizeY;
         mCompressFormat = compressFormat;
@@ -25,6 +33,7 @@ public class CropParameters {
         mImageInputPath = imageInputPath;
         mImageOutputPath = imageOutputPath;
         mExifInfo = exifInfo;
+        mImageInfo = imageInfo;
     }
 
     public int getMaxResultImageSizeX() {
@@ -55,4 +64,11 @@ public class CropParameters {
         return mExifInfo;
     }
 
+    /**
+     * @return - header info of the source image, null if it is not known
+     */
+    public ImageInfo getImageInfo() {
+        return mImageInfo;
+    }
+
 }
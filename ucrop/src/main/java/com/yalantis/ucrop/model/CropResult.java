@@ -0,0 +1,44 @@
+package com.yalantis.ucrop.model;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Cropped image saved by {@link com.yalantis.ucrop.UCropEngine}. Offsets are given in the same
+ * space as {@link CropSpec#getCropRect()}, scaled by the output downscale if there was one.
+ */
+public class CropResult {
+
+    private final String mOutputPath;
+    private final int mOffsetX, mOffsetY;
+    private final int mImageWidth, mImageHeight;
+
+    public CropResult(@NonNull String outputPath, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+        mOutputPath = outputPath;
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+    }
+
+    @NonNull
+    public String getOutputPath() {
+        return mOutputPath;
+    }
+
+    public int getOffsetX() {
+        return mOffsetX;
+    }
+
+    public int getOffsetY() {
+        return mOffsetY;
+    }
+
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.yalantis.ucrop.model;
+
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+/**
+ * What part of the source image to crop, in source pixels.
+ * <p/>
+ * Exif orientation of the source is applied first, then the image is rotated by the angle
+ * (degrees, clockwise) around its center. Crop rect is given in that rotated image, with origin
+ * at the top left corner of its bounding box. With zero angle it is a plain rect of the upright image.
+ */
+public class CropSpec {
+
+    private final RectF mCropRect;
+    private final float mAngle;
+
+    public CropSpec(@NonNull RectF cropRect) {
+        this(cropRect, 0);
+    }
+
+    public CropSpec(@NonNull RectF cropRect, float angle) {
+        mCropRect = new RectF(cropRect);
+        mAngle = angle;
+    }
+
+    @NonNull
+    public RectF getCropRect() {
+        return mCropRect;
+    }
+
+    public float getAngle() {
+        return mAngle;
+    }
+
+}
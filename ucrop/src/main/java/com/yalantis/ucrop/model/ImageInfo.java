@@ -0,0 +1,74 @@
+package com.yalantis.ucrop.model;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Image properties that are read from the header of an image file in a single pass:
+ * dimensions (as stored, before EXIF orientation is applied), MIME type, EXIF orientation
+ * and location of the embedded EXIF thumbnail. Unknown values are set to -1 (or null).
+ */
+public class ImageInfo {
+
+    private int mWidth = -1;
+    private int mHeight = -1;
+    @Nullable
+    private String mMimeType;
+    private int mExifOrientation = -1;
+    private long mThumbnailOffset = -1;
+    private int mThumbnailLength = -1;
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean hasSize() {
+        return mWidth > 0 && mHeight > 0;
+    }
+
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public void setMimeType(@Nullable String mimeType) {
+        mMimeType = mimeType;
+    }
+
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    public void setExifOrientation(int exifOrientation) {
+        mExifOrientation = exifOrientation;
+    }
+
+    /**
+     * @return - absolute offset of the embedded JPEG thumbnail from the start of the file
+     */
+    public long getThumbnailOffset() {
+        return mThumbnailOffset;
+    }
+
+    public int getThumbnailLength() {
+        return mThumbnailLength;
+    }
+
+    public boolean hasThumbnail() {
+        return mThumbnailOffset > 0 && mThumbnailLength > 0;
+    }
+
+    public void setThumbnail(long thumbnailOffset, int thumbnailLength) {
+        mThumbnailOffset = thumbnailOffset;
+        mThumbnailLength = thumbnailLength;
+    }
+
+}
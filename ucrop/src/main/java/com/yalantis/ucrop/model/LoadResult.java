@@ -0,0 +1,60 @@
+package com.yalantis.ucrop.model;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Image loaded by {@link com.yalantis.ucrop.task.BitmapLoader#call()}, same data as passed to
+ * {@link com.yalantis.ucrop.callback.BitmapLoadCallback#onBitmapLoaded}.
+ */
+public class LoadResult {
+
+    private final Bitmap mBitmap;
+    private final ExifInfo mExifInfo;
+    private final ImageInfo mImageInfo;
+    private final String mImageInputPath;
+    private final String mImageOutputPath;
+
+    public LoadResult(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull ImageInfo imageInfo,
+                      @NonNull String imageInputPath, @Nullable String imageOutputPath) {
+        mBitmap = bitmap;
+        mExifInfo = exifInfo;
+        mImageInfo = imageInfo;
+        mImageInputPath = imageInputPath;
+        mImageOutputPath = imageOutputPath;
+    }
+
+    /**
+     * @return - bitmap as decoded, exif orientation is not applied
+     */
+    @NonNull
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @NonNull
+    public ExifInfo getExifInfo() {
+        return mExifInfo;
+    }
+
+    @NonNull
+    public ImageInfo getImageInfo() {
+        return mImageInfo;
+    }
+
+    /**
+     * @return - path of the local file the bitmap was decoded from, pass it to
+     * {@link com.yalantis.ucrop.UCropEngine} to crop the full resolution image
+     */
+    @NonNull
+    public String getImageInputPath() {
+        return mImageInputPath;
+    }
+
+    @Nullable
+    public String getImageOutputPath() {
+        return mImageOutputPath;
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.yalantis.ucrop.model;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+/**
+ * Where and how to save a cropped image. Cropped image is downscaled to fit max size
+ * if it is set (values below or equal to zero mean no limit).
+ */
+public class OutputSpec {
+
+    private final String mOutputPath;
+    private final Bitmap.CompressFormat mCompressFormat;
+    private final int mCompressQuality;
+    private final int mMaxWidth, mMaxHeight;
+
+    public OutputSpec(@NonNull String outputPath, @NonNull Bitmap.CompressFormat compressFormat, int compressQuality) {
+        this(outputPath, compressFormat, compressQuality, 0, 0);
+    }
+
+    public OutputSpec(@NonNull String outputPath, @NonNull Bitmap.CompressFormat compressFormat, int compressQuality,
+                      int maxWidth, int maxHeight) {
+        mOutputPath = outputPath;
+        mCompressFormat = compressFormat;
+        mCompressQuality = compressQuality;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    @NonNull
+    public String getOutputPath() {
+        return mOutputPath;
+    }
+
+    @NonNull
+    public Bitmap.CompressFormat getCompressFormat() {
+        return mCompressFormat;
+    }
+
+    public int getCompressQuality() {
+        return mCompressQuality;
+    }
+
+    public int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+}
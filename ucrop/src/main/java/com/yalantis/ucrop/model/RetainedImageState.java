@@ -0,0 +1,108 @@
+package com.yalantis.ucrop.model;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Loaded image and its transform, handed from a crop view to the one that replaces it after a
+ * configuration change, see {@link com.yalantis.ucrop.view.CropImageView#retainImageState()}.
+ * State holds a reference to the bitmap, so it is not reused while being handed over.
+ */
+public class RetainedImageState {
+
+    private final Uri mImageUri, mImageOutputUri;
+    private final Bitmap mBitmap;
+    private final ExifInfo mExifInfo;
+    private final ImageInfo mImageInfo;
+    private final String mImageInputPath, mImageOutputPath;
+    private final Matrix mImageMatrix;
+
+    private RectF mCropRect;
+    private float mTargetAspectRatio;
+    private boolean mReleased;
+
+    public RetainedImageState(@NonNull Uri imageUri, @Nullable Uri imageOutputUri,
+                              @NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull ImageInfo imageInfo,
+                              @NonNull String imageInputPath, @Nullable String imageOutputPath,
+                              @NonNull Matrix imageMatrix) {
+        mImageUri = imageUri;
+        mImageOutputUri = imageOutputUri;
+        mBitmap = bitmap;
+        mExifInfo = exifInfo;
+        mImageInfo = imageInfo;
+        mImageInputPath = imageInputPath;
+        mImageOutputPath = imageOutputPath;
+        mImageMatrix = imageMatrix;
+    }
+
+    @NonNull
+    public Uri getImageUri() {
+        return mImageUri;
+    }
+
+    @Nullable
+    public Uri getImageOutputUri() {
+        return mImageOutputUri;
+    }
+
+    @NonNull
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @NonNull
+    public ExifInfo getExifInfo() {
+        return mExifInfo;
+    }
+
+    @NonNull
+    public ImageInfo getImageInfo() {
+        return mImageInfo;
+    }
+
+    @NonNull
+    public String getImageInputPath() {
+        return mImageInputPath;
+    }
+
+    @Nullable
+    public String getImageOutputPath() {
+        return mImageOutputPath;
+    }
+
+    @NonNull
+    public Matrix getImageMatrix() {
+        return mImageMatrix;
+    }
+
+    /**
+     * @return - crop bounds the image matrix was set for, null if they were not retained
+     */
+    @Nullable
+    public RectF getCropRect() {
+        return mCropRect;
+    }
+
+    public float getTargetAspectRatio() {
+        return mTargetAspectRatio;
+    }
+
+    public void setCropRect(@NonNull RectF cropRect, float targetAspectRatio) {
+        mCropRect = cropRect;
+        mTargetAspectRatio = targetAspectRatio;
+    }
+
+    /**
+     * @return - true the first time it is called, so the bitmap reference is dropped only once
+     */
+    public synchronized boolean markReleased() {
+        boolean released = mReleased;
+        mReleased = true;
+        return !released;
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.yalantis.ucrop.task;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.yalantis.ucrop.UCropEngine;
+import com.yalantis.ucrop.callback.BatchCropCallback;
+import com.yalantis.ucrop.model.BatchMetrics;
+import com.yalantis.ucrop.model.CropJob;
+import com.yalantis.ucrop.model.CropResult;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.util.BitmapLoadUtils;
+import com.yalantis.ucrop.util.CropGeometryUtils;
+import com.yalantis.ucrop.util.ImageHeaderParser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs many {@link UCropEngine} crops concurrently.
+ * <p/>
+ * Jobs are started in order as long as the number of running jobs stays within the CPU pool size
+ * and their estimated peak memory fits into the budget (a part of the memory currently available
+ * to the system, since native crop allocates outside of the Java heap). A job that doesn't fit
+ * even alone is started once nothing else runs. Results and failures are delivered per job on the
+ * main thread, followed by {@link BatchMetrics} of the whole batch.
+ */
+public class BatchCropRunner {
+
+    private static final String TAG = "BatchCropRunner";
+
+    private static final int MEMORY_BUDGET_DIVIDER = 4;
+
+    private final CropAdmission mAdmission;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Object mLock = new Object();
+
+    private int mSucceededCount, mFailedCount;
+    private long mOutputPixels;
+
+    private volatile boolean mStarted;
+
+    public BatchCropRunner(@NonNull Context context) {
+        long availableMemory = Runtime.getRuntime().maxMemory();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            availableMemory = memoryInfo.availMem;
+        }
+        mAdmission = new CropAdmission(availableMemory / MEMORY_BUDGET_DIVIDER, TaskExecutors.getCpuPoolSize());
+    }
+
+    /**
+     * Starts the batch, runner can be used only once.
+     */
+    public void start(@NonNull final List<CropJob> jobs, @NonNull final BatchCropCallback callback) {
+        if (mStarted) {
+            throw new IllegalStateException("Batch is already started");
+        }
+        mStarted = true;
+
+        final List<CropJob> batch = new ArrayList<>(jobs);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runBatch(batch, callback);
+            }
+        }, "uCrop-batch").start();
+    }
+
+    /**
+     * Jobs that are not started yet are reported as failed with {@link CancellationException},
+     * running ones are finished.
+     */
+    public void cancel() {
+        mAdmission.cancel();
+    }
+
+    private void runBatch(@NonNull List<CropJob> jobs, @NonNull final BatchCropCallback callback) {
+        final long startTime = SystemClock.elapsedRealtime();
+        Executor executor = TaskExecutors.getCpuExecutor(TaskExecutors.PRIORITY_BACKGROUND);
+
+        for (final CropJob job : jobs) {
+            final long estimatedMemory = estimatePeakMemory(job);
+            if (!mAdmission.admit(estimatedMemory)) {
+                deliverFailure(callback, job, new CancellationException("Batch cancelled"));
+                continue;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            CropResult result = UCropEngine.crop(job.getSourcePath(), job.getCropSpec(), job.getOutputSpec());
+                            synchronized (mLock) {
+                                mOutputPixels += (long) result.getImageWidth() * result.getImageHeight();
+                            }
+                            deliverResult(callback, job, result);
+                        } catch (Throwable throwable) {
+                            Log.e(TAG, "Job failed: " + job.getSourcePath(), throwable);
+                            deliverFailure(callback, job, throwable);
+                        } finally {
+                            mAdmission.release(estimatedMemory);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Job never runs, so it doesn't release its admission itself
+                Log.e(TAG, "Job rejected: " + job.getSourcePath(), e);
+                mAdmission.release(estimatedMemory);
+                deliverFailure(callback, job, e);
+            }
+        }
+
+        mAdmission.awaitIdle();
+
+        final BatchMetrics metrics;
+        synchronized (mLock) {
+            metrics = new BatchMetrics(jobs.size(), mSucceededCount, mFailedCount,
+                    SystemClock.elapsedRealtime() - startTime, mOutputPixels, mAdmission.getMaxRunningJobs());
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onBatchFinished(metrics);
+            }
+        });
+    }
+
+    private void deliverResult(@NonNull final BatchCropCallback callback, @NonNull final CropJob job,
+                               @NonNull final CropResult result) {
+        synchronized (mLock) {
+            mSucceededCount++;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onJobCompleted(job, result);
+            }
+        });
+    }
+
+    private void deliverFailure(@NonNull final BatchCropCallback callback, @NonNull final CropJob job,
+                                @NonNull final Throwable throwable) {
+        synchronized (mLock) {
+            mFailedCount++;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onJobFailed(job, throwable);
+            }
+        });
+    }
+
+    private static long estimatePeakMemory(@NonNull CropJob job) {
+        ImageInfo imageInfo = readImageInfo(job.getSourcePath());
+        long sourcePixels = (long) imageInfo.getWidth() * imageInfo.getHeight();
+
+        RectF cropRect = job.getCropSpec().getCropRect();
+        float resizeScale = CropGeometryUtils.getResizeScale(cropRect.width(), cropRect.height(),
+                job.getOutputSpec().getMaxWidth(), job.getOutputSpec().getMaxHeight());
+        return CropAdmission.estimatePeakMemory(sourcePixels, resizeScale, job.getCropSpec().getAngle());
+    }
+
+    @NonNull
+    private static ImageInfo readImageInfo(@NonNull String sourcePath) {
+        ImageInfo imageInfo = new ImageInfo();
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(sourcePath);
+            imageInfo = new ImageHeaderParser(stream.getChannel()).getImageInfo();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "readImageInfo: " + e.getMessage());
+        } finally {
+            BitmapLoadUtils.close(stream);
+        }
+
+        if (!imageInfo.hasSize()) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(sourcePath, options);
+            imageInfo.setSize(Math.max(options.outWidth, 0), Math.max(options.outHeight, 0));
+        }
+        return imageInfo;
+    }
+
+}
@@ -3,7 +3,6 @@ package com.yalantis.ucrop.task;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.RectF;
-import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.support.annotation.NonNull;
@@ -11,13 +10,18 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.callback.CropGeometryCallback;
+import com.yalantis.ucrop.model.CropGeometry;
 import com.yalantis.ucrop.model.CropParameters;
 import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageInfo;
 import com.yalantis.ucrop.model.ImageState;
+import com.yalantis.ucrop.util.BitmapLoadUtils;
 import com.yalantis.ucrop.util.FileUtils;
 import com.yalantis.ucrop.util.ImageHeaderParser;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
@@ -26,6 +30,7 @@ import java.io.IOException;
  * First image is downscaled if max size was set and if resulting image is larger that max size.
  * Then image is rotated accordingly.
  * Finally new Bitmap object is created and saved to file.
+ * In geometry only mode the task stops after the crop area is calculated, see {@link CropGeometry}.
  */
 public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
@@ -36,6 +41,7 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
     }
 
     private Bitmap mViewBitmap;
+    private final int mViewBitmapWidth, mViewBitmapHeight;
 
     private final RectF mCropRect;
     private final RectF mCurrentImageRect;
@@ -47,15 +53,34 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
     private final int mCompressQuality;
     private final String mImageInputPath, mImageOutputPath;
     private final ExifInfo mExifInfo;
+    private final ImageInfo mImageInfo;
     private final BitmapCropCallback mCropCallback;
+    private final CropGeometryCallback mGeometryCallback;
 
     private int mCroppedImageWidth, mCroppedImageHeight;
     private int cropOffsetX, cropOffsetY;
+    private CropGeometry mCropGeometry;
 
     public BitmapCropTask(@Nullable Bitmap viewBitmap, @NonNull ImageState imageState, @NonNull CropParameters cropParameters,
                           @Nullable BitmapCropCallback cropCallback) {
+        this(viewBitmap, imageState, cropParameters, cropCallback, null);
+    }
+
+    /**
+     * Task only calculates the crop geometry, nothing is decoded or saved.
+     */
+    public BitmapCropTask(@Nullable Bitmap viewBitmap, @NonNull ImageState imageState, @NonNull CropParameters cropParameters,
+                          @NonNull CropGeometryCallback geometryCallback) {
+        this(viewBitmap, imageState, cropParameters, null, geometryCallback);
+    }
+
+    private BitmapCropTask(@Nullable Bitmap viewBitmap, @NonNull ImageState imageState, @NonNull CropParameters cropParameters,
+                           @Nullable BitmapCropCallback cropCallback, @Nullable CropGeometryCallback geometryCallback) {
 
         mViewBitmap = viewBitmap;
+        // View bitmap can be returned to BitmapPool and reconfigured while the task runs
+        mViewBitmapWidth = viewBitmap != null ? viewBitmap.getWidth() : 0;
+        mViewBitmapHeight = viewBitmap != null ? viewBitmap.getHeight() : 0;
         mCropRect = imageState.getCropRect();
         mCurrentImageRect = imageState.getCurrentImageRect();
 
@@ -70,8 +95,10 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         mImageInputPath = cropParameters.getImageInputPath();
         mImageOutputPath = cropParameters.getImageOutputPath();
         mExifInfo = cropParameters.getExifInfo();
+        mImageInfo = cropParameters.getImageInfo();
 
         mCropCallback = cropCallback;
+        mGeometryCallback = geometryCallback;
     }
 
     @Override
@@ -87,6 +114,12 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
         float resizeScale = resize();
 
+        if (mGeometryCallback != null) {
+            mCropGeometry = calculateGeometry(resizeScale);
+            mViewBitmap = null;
+            return null;
+        }
+
         try {
             crop(resizeScale);
             mViewBitmap = null;
@@ -98,13 +131,21 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
     }
 
     private float resize() {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(mImageInputPath, options);
+        int sourceWidth, sourceHeight;
+        if (mImageInfo != null && mImageInfo.hasSize()) {
+            sourceWidth = mImageInfo.getWidth();
+            sourceHeight = mImageInfo.getHeight();
+        } else {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(mImageInputPath, options);
+            sourceWidth = options.outWidth;
+            sourceHeight = options.outHeight;
+        }
 
-        boolean swapSides = mExifInfo.getExifDegrees() == 90 || mExifInfo.getExifDegrees() == 270;
-        float scaleX = (swapSides ? options.outHeight : options.outWidth) / (float) mViewBitmap.getWidth();
-        float scaleY = (swapSides ? options.outWidth : options.outHeight) / (float) mViewBitmap.getHeight();
+        // View bitmap is not rotated by exif, so its sides match the ones of the source
+        float scaleX = sourceWidth / (float) mViewBitmapWidth;
+        float scaleY = sourceHeight / (float) mViewBitmapHeight;
 
         float resizeScale = Math.min(scaleX, scaleY);
 
@@ -127,8 +168,24 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         return resizeScale;
     }
 
+    /**
+     * Same offsets and size as in {@link #crop(float)}, but in source pixels: resize scale is reported
+     * instead of being applied.
+     */
+    @NonNull
+    private CropGeometry calculateGeometry(float resizeScale) {
+        float sourceScale = mCurrentScale * resizeScale;
+        return new CropGeometry(
+                Math.round((mCropRect.left - mCurrentImageRect.left) / sourceScale),
+                Math.round((mCropRect.top - mCurrentImageRect.top) / sourceScale),
+                Math.round(mCropRect.width() / sourceScale),
+                Math.round(mCropRect.height() / sourceScale),
+                mCurrentAngle, mExifInfo.getExifOrientation(), resizeScale);
+    }
+
     private boolean crop(float resizeScale) throws IOException {
-        ExifInterface originalExif = new ExifInterface(mImageInputPath);
+        // Read before cropping, output path may point to the source file
+        byte[] originalExif = mCompressFormat.equals(Bitmap.CompressFormat.JPEG) ? readExifSegment() : null;
 
         cropOffsetX = Math.round((mCropRect.left - mCurrentImageRect.left) / mCurrentScale);
         cropOffsetY = Math.round((mCropRect.top - mCurrentImageRect.top) / mCurrentScale);
@@ -139,20 +196,30 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         Log.i(TAG, "Should crop: " + shouldCrop);
 
         if (shouldCrop) {
-            boolean cropped = cropCImg(mImageInputPath, mImageOutputPath,
+            return cropWithExif(mImageInputPath, mImageOutputPath,
                     cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
                     mCurrentAngle, resizeScale, mCompressFormat.ordinal(), mCompressQuality,
-                    mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation());
-            if (cropped && mCompressFormat.equals(Bitmap.CompressFormat.JPEG)) {
-                ImageHeaderParser.copyExif(originalExif, mCroppedImageWidth, mCroppedImageHeight, mImageOutputPath);
-            }
-            return cropped;
+                    mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation(), originalExif);
         } else {
             FileUtils.copyFile(mImageInputPath, mImageOutputPath);
             return false;
         }
     }
 
+    @Nullable
+    private byte[] readExifSegment() {
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(mImageInputPath);
+            return new ImageHeaderParser(stream.getChannel()).getExifSegment();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "readExifSegment: " + e.getMessage());
+            return null;
+        } finally {
+            BitmapLoadUtils.close(stream);
+        }
+    }
+
     /**
      * Check whether an image should be cropped at all or just file can be copied to the destination path.
      * For each 1000 pixels there is one pixel of error due to matrix calculations etc.
@@ -172,6 +239,27 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
                 || mCurrentAngle != 0;
     }
 
+    /**
+     * Same as {@link #cropCImg}, then the exif segment of the source image is written into the saved JPEG
+     * right after the JFIF APP0 header. Native encoder doesn't take an exif segment, so the output is
+     * rewritten once with a sequential copy.
+     *
+     * @param exifSegment - segment data returned by {@link ImageHeaderParser#getExifSegment()}, it is modified
+     */
+    public static boolean cropWithExif(String inputPath, String outputPath,
+                                       int left, int top, int width, int height,
+                                       float angle, float resizeScale,
+                                       int format, int quality,
+                                       int exifDegrees, int exifTranslation,
+                                       @Nullable byte[] exifSegment) throws IOException, OutOfMemoryError {
+        boolean cropped = cropCImg(inputPath, outputPath, left, top, width, height,
+                angle, resizeScale, format, quality, exifDegrees, exifTranslation);
+        if (cropped && exifSegment != null && format == Bitmap.CompressFormat.JPEG.ordinal()) {
+            ImageHeaderParser.copyExif(exifSegment, width, height, outputPath);
+        }
+        return cropped;
+    }
+
     @SuppressWarnings("JniMissingFunction")
     native public static boolean
     cropCImg(String inputPath, String outputPath,
@@ -182,7 +270,13 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
     @Override
     protected void onPostExecute(@Nullable Throwable t) {
-        if (mCropCallback != null) {
+        if (mGeometryCallback != null) {
+            if (t == null) {
+                mGeometryCallback.onCropGeometryCalculated(mCropGeometry);
+            } else {
+                mGeometryCallback.onCropFailure(t);
+            }
+        } else if (mCropCallback != null) {
             if (t == null) {
                 Uri uri = Uri.fromFile(new File(mImageOutputPath));
                 mCropCallback.onBitmapCropped(uri, cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight);
@@ -1,69 +1,50 @@
 package com.yalantis.ucrop.task;
 
-import android.Manifest.permission;
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Build;
-import android.os.ParcelFileDescriptor;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.content.ContextCompat;
-import android.text.TextUtils;
-import android.util.Log;
 
 import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.callback.ImageInfoCallback;
+import com.yalantis.ucrop.callback.PreviewBitmapLoadCallback;
 import com.yalantis.ucrop.model.ExifInfo;
-import com.yalantis.ucrop.util.BitmapLoadUtils;
-import com.yalantis.ucrop.util.FileUtils;
-
-import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okio.BufferedSource;
-import okio.Okio;
-import okio.Sink;
+import com.yalantis.ucrop.model.LoadResult;
+import com.yalantis.ucrop.util.BitmapPool;
+import com.yalantis.ucrop.view.TransformImageView;
 
 /**
- * Creates and returns a Bitmap for a given Uri(String url).
- * inSampleSize is calculated based on requiredWidth property. However can be adjusted if OOM occurs.
- * If any EXIF config is found - bitmap is transformed properly.
+ * Loads the image for a given Uri(String url) with {@link BitmapLoader} and delivers it to the callback
+ * on the main thread, previews are delivered as soon as they are decoded.
+ * Task must be created and started on the main thread, it can be stopped at any stage with {@link #cancelLoad()}.
  */
-public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapWorkerResult> {
-
-    private static final String TAG = "BitmapWorkerTask";
-
-    private final Context mContext;
-    private Uri mInputUri;
-    private Uri mOutputUri;
-    private final int mRequiredWidth;
-    private final int mRequiredHeight;
+public class BitmapLoadTask extends AsyncTask<Void, BitmapLoadTask.BitmapWorkerResult, BitmapLoadTask.BitmapWorkerResult> {
 
+    private final Uri mInputUri;
+    private final BitmapLoader mLoader;
     private final BitmapLoadCallback mBitmapLoadCallback;
 
     public static class BitmapWorkerResult {
 
         Bitmap mBitmapResult;
         ExifInfo mExifInfo;
+        LoadResult mLoadResult;
         Exception mBitmapWorkerException;
 
-        public BitmapWorkerResult(@NonNull Bitmap bitmapResult, @NonNull ExifInfo exifInfo) {
-            mBitmapResult = bitmapResult;
+        public BitmapWorkerResult(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo) {
+            mBitmapResult = preview;
             mExifInfo = exifInfo;
         }
 
+        public BitmapWorkerResult(@NonNull LoadResult loadResult) {
+            this(loadResult.getBitmap(), loadResult.getExifInfo());
+            mLoadResult = loadResult;
+        }
+
         public BitmapWorkerResult(@NonNull Exception bitmapWorkerException) {
             mBitmapWorkerException = bitmapWorkerException;
         }
@@ -74,204 +55,107 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
                           @NonNull Uri inputUri, @Nullable Uri outputUri,
                           int requiredWidth, int requiredHeight,
                           BitmapLoadCallback loadCallback) {
-        mContext = context;
-        mInputUri = inputUri;
-        mOutputUri = outputUri;
-        mRequiredWidth = requiredWidth;
-        mRequiredHeight = requiredHeight;
-        mBitmapLoadCallback = loadCallback;
+        this(context, inputUri, outputUri, requiredWidth, requiredHeight, TransformImageView.DEFAULT_PREVIEW_QUALITY, loadCallback);
     }
 
-    @Override
-    @NonNull
-    protected BitmapWorkerResult doInBackground(Void... params) {
-        if (mInputUri == null) {
-            return new BitmapWorkerResult(new NullPointerException("Input Uri cannot be null"));
-        }
-
-        try {
-            processInputUri();
-        } catch (NullPointerException | IOException e) {
-            return new BitmapWorkerResult(e);
-        }
-
-        final ParcelFileDescriptor parcelFileDescriptor;
-        try {
-            parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mInputUri, "r");
-        } catch (FileNotFoundException e) {
-            return new BitmapWorkerResult(e);
-        }
-
-        final FileDescriptor fileDescriptor;
-        if (parcelFileDescriptor != null) {
-            fileDescriptor = parcelFileDescriptor.getFileDescriptor();
-        } else {
-            return new BitmapWorkerResult(new NullPointerException("ParcelFileDescriptor was null for given Uri: [" + mInputUri + "]"));
-        }
-
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
-        if (options.outWidth == -1 || options.outHeight == -1) {
-            return new BitmapWorkerResult(new IllegalArgumentException("Bounds for bitmap could not be retrieved from the Uri: [" + mInputUri + "]"));
-        }
-
-        options.inSampleSize = BitmapLoadUtils.calculateInSampleSize(options, mRequiredWidth, mRequiredHeight);
-        options.inJustDecodeBounds = false;
-
-        Bitmap decodeSampledBitmap = null;
-
-        boolean decodeAttemptSuccess = false;
-        while (!decodeAttemptSuccess) {
-            try {
-                decodeSampledBitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
-                decodeAttemptSuccess = true;
-            } catch (OutOfMemoryError error) {
-                Log.e(TAG, "doInBackground: BitmapFactory.decodeFileDescriptor: ", error);
-                options.inSampleSize *= 2;
-            }
-        }
-
-        if (decodeSampledBitmap == null) {
-            return new BitmapWorkerResult(new IllegalArgumentException("Bitmap could not be decoded from the Uri: [" + mInputUri + "]"));
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-            BitmapLoadUtils.close(parcelFileDescriptor);
-        }
-
-        int exifOrientation = BitmapLoadUtils.getExifOrientation(mContext, mInputUri);
-        int exifDegrees = BitmapLoadUtils.exifToDegrees(exifOrientation);
-        int exifTranslation = BitmapLoadUtils.exifToTranslation(exifOrientation);
-
-        ExifInfo exifInfo = new ExifInfo(exifOrientation, exifDegrees, exifTranslation);
-
-        Matrix matrix = new Matrix();
-        if (exifDegrees != 0) {
-            matrix.preRotate(exifDegrees);
-        }
-        if (exifTranslation != 1) {
-            matrix.postScale(exifTranslation, 1);
-        }
-        if (!matrix.isIdentity()) {
-            return new BitmapWorkerResult(BitmapLoadUtils.transformBitmap(decodeSampledBitmap, matrix), exifInfo);
+    public BitmapLoadTask(@NonNull Context context,
+                          @NonNull Uri inputUri, @Nullable Uri outputUri,
+                          int requiredWidth, int requiredHeight,
+                          @TransformImageView.PreviewQuality int previewQuality,
+                          BitmapLoadCallback loadCallback) {
+        mInputUri = inputUri;
+        mBitmapLoadCallback = loadCallback;
+        // Nobody to show previews to, don't decode them
+        BitmapLoader.PreviewListener previewListener = null;
+        if (loadCallback instanceof PreviewBitmapLoadCallback) {
+            previewListener = new BitmapLoader.PreviewListener() {
+                @Override
+                public void onPreviewDecoded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo) {
+                    publishProgress(new BitmapWorkerResult(preview, exifInfo));
+                }
+            };
         }
-
-        return new BitmapWorkerResult(decodeSampledBitmap, exifInfo);
+        mLoader = new BitmapLoader(context, inputUri, outputUri, requiredWidth, requiredHeight, previewQuality, previewListener);
     }
 
-    private void processInputUri() throws NullPointerException, IOException {
-        String inputUriScheme = mInputUri.getScheme();
-        Log.d(TAG, "Uri scheme: " + inputUriScheme);
-        if ("http".equals(inputUriScheme) || "https".equals(inputUriScheme)) {
-            try {
-                downloadFile(mInputUri, mOutputUri);
-            } catch (NullPointerException | IOException e) {
-                Log.e(TAG, "Downloading failed", e);
-                throw e;
-            }
-        } else if ("content".equals(inputUriScheme)) {
-            String path = getFilePath();
-            if (!TextUtils.isEmpty(path) && new File(path).exists()) {
-                mInputUri = Uri.fromFile(new File(path));
-            } else {
-                try {
-                    copyFile(mInputUri, mOutputUri);
-                } catch (NullPointerException | IOException e) {
-                    Log.e(TAG, "Copying failed", e);
-                    throw e;
+    /**
+     * Starts the task on {@link TaskExecutors}: download or copy (see {@link BitmapLoader#prepareInput()}) runs
+     * on the I/O pool, decoding is handed over to the CPU pool after that. File Uris go to the CPU
+     * pool right away. Must be called on the main thread.
+     */
+    public void start(@TaskExecutors.Priority final int priority) {
+        if (mInputUri == null || "file".equals(mInputUri.getScheme())) {
+            executeOnExecutor(TaskExecutors.getCpuExecutor(priority));
+            return;
+        }
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+        TaskExecutors.getIoExecutor(priority).execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) {
+                    mLoader.prepareInput();
                 }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isCancelled()) {
+                            executeOnExecutor(TaskExecutors.getCpuExecutor(priority));
+                        }
+                    }
+                });
             }
-        } else if (!"file".equals(inputUriScheme)) {
-            Log.e(TAG, "Invalid Uri scheme " + inputUriScheme);
-            throw new IllegalArgumentException("Invalid Uri scheme" + inputUriScheme);
-        }
+        });
     }
 
-    private String getFilePath() {
-        if (ContextCompat.checkSelfPermission(mContext, permission.READ_EXTERNAL_STORAGE)
-                == PackageManager.PERMISSION_GRANTED) {
-            return FileUtils.getPath(mContext, mInputUri);
-        } else {
-            return null;
-        }
+    /**
+     * Cancels the task and stops the work in progress, see {@link BitmapLoader#cancel()}.
+     * Callback is not called after that.
+     */
+    public void cancelLoad() {
+        cancel(true);
+        mLoader.cancel();
     }
 
-    private void copyFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
-        Log.d(TAG, "copyFile");
-
-        if (outputUri == null) {
-            throw new NullPointerException("Output Uri is null - cannot copy image");
-        }
-
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
+    @Override
+    @NonNull
+    protected BitmapWorkerResult doInBackground(Void... params) {
         try {
-            inputStream = mContext.getContentResolver().openInputStream(inputUri);
-            outputStream = new FileOutputStream(new File(outputUri.getPath()));
-            if (inputStream == null) {
-                throw new NullPointerException("InputStream for given input Uri is null");
-            }
-
-            byte buffer[] = new byte[1024];
-            int length;
-            while ((length = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, length);
-            }
-        } finally {
-            BitmapLoadUtils.close(outputStream);
-            BitmapLoadUtils.close(inputStream);
-
-            // swap uris, because input image was copied to the output destination
-            // (cropped image will override it later)
-            mInputUri = mOutputUri;
+            return new BitmapWorkerResult(mLoader.load());
+        } catch (Exception e) {
+            return new BitmapWorkerResult(e);
         }
     }
 
-    private void downloadFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
-        Log.d(TAG, "downloadFile");
-
-        if (outputUri == null) {
-            throw new NullPointerException("Output Uri is null - cannot download image");
+    @Override
+    protected void onProgressUpdate(BitmapWorkerResult... values) {
+        // Preview could be posted right before the task was cancelled
+        if (isCancelled()) {
+            return;
         }
+        if (mBitmapLoadCallback instanceof PreviewBitmapLoadCallback) {
+            ((PreviewBitmapLoadCallback) mBitmapLoadCallback).onPreviewLoaded(values[0].mBitmapResult, values[0].mExifInfo);
+        }
+    }
 
-        OkHttpClient client = new OkHttpClient();
-
-        BufferedSource source = null;
-        Sink sink = null;
-        Response response = null;
-        try {
-            Request request = new Request.Builder()
-                    .url(inputUri.toString())
-                    .build();
-            response = client.newCall(request).execute();
-            source = response.body().source();
-
-            OutputStream outputStream = mContext.getContentResolver().openOutputStream(outputUri);
-            if (outputStream != null) {
-                sink = Okio.sink(outputStream);
-                source.readAll(sink);
-            } else {
-                throw new NullPointerException("OutputStream for given output Uri is null");
-            }
-        } finally {
-            BitmapLoadUtils.close(source);
-            BitmapLoadUtils.close(sink);
-            if (response != null) {
-                BitmapLoadUtils.close(response.body());
-            }
-            client.dispatcher().cancelAll();
-
-            // swap uris, because input image was downloaded to the output destination
-            // (cropped image will override it later)
-            mInputUri = mOutputUri;
+    @Override
+    protected void onCancelled(@Nullable BitmapWorkerResult result) {
+        // Load finished before it noticed cancellation, nobody will draw this bitmap
+        if (result != null && result.mLoadResult != null && result.mBitmapResult != mLoader.getCachedPreview()) {
+            BitmapPool.getInstance().put(result.mBitmapResult);
         }
     }
 
     @Override
     protected void onPostExecute(@NonNull BitmapWorkerResult result) {
         if (result.mBitmapWorkerException == null) {
-            mBitmapLoadCallback.onBitmapLoaded(result.mBitmapResult, result.mExifInfo, mInputUri.getPath(), (mOutputUri == null) ? null : mOutputUri.getPath());
+            LoadResult loadResult = result.mLoadResult;
+            if (mBitmapLoadCallback instanceof ImageInfoCallback) {
+                ((ImageInfoCallback) mBitmapLoadCallback).onImageInfoLoaded(loadResult.getImageInfo());
+            }
+            mBitmapLoadCallback.onBitmapLoaded(loadResult.getBitmap(), loadResult.getExifInfo(),
+                    loadResult.getImageInputPath(), loadResult.getImageOutputPath());
+            mLoader.writeDiskCacheEntry(loadResult);
         } else {
             mBitmapLoadCallback.onFailure(result.mBitmapWorkerException);
         }
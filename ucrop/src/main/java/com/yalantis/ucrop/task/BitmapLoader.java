@@ -0,0 +1,788 @@
+package com.yalantis.ucrop.task;
+
+import android.Manifest.permission;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.model.LoadResult;
+import com.yalantis.ucrop.util.BitmapDiskCache;
+import com.yalantis.ucrop.util.BitmapLoadUtils;
+import com.yalantis.ucrop.util.BitmapMemoryCache;
+import com.yalantis.ucrop.util.BitmapPool;
+import com.yalantis.ucrop.util.FileUtils;
+import com.yalantis.ucrop.util.ImageHeaderParser;
+import com.yalantis.ucrop.util.ResumableDownload;
+import com.yalantis.ucrop.view.TransformImageView;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Creates and returns a Bitmap for a given Uri(String url) on the calling thread.
+ * Decode size is planned up front from the required size and the memory budget,
+ * see {@link BitmapLoadUtils#planDecode(Context, BitmapFactory.Options, int, int, int, int)}.
+ * Bitmap is returned as decoded, EXIF orientation is passed along with it and applied at draw time
+ * (see {@link com.yalantis.ucrop.util.FastBitmapDrawable}), so no rotated copy is allocated.
+ * While a progressive JPEG is being downloaded a low resolution preview is published as soon as
+ * its first scans arrive. Otherwise the JPEG thumbnail embedded into exif (if any) is published
+ * as a preview before the sampled decode starts.
+ * Downsampled bitmaps of large images are kept in {@link BitmapDiskCache} and decoded from there
+ * the next time the same image is opened.
+ * <p/>
+ * It is a plain {@link Callable}, so it can be run on any thread or executor, {@link BitmapLoadTask}
+ * runs it for the crop view. Load can be stopped at any stage with {@link #cancel()}.
+ */
+public class BitmapLoader implements Callable<LoadResult> {
+
+    private static final String TAG = "BitmapLoader";
+
+    private static final int DOWNLOAD_SEGMENT_SIZE = 8 * 1024;
+    private static final long PREVIEW_MIN_DOWNLOAD_SIZE = 256 * 1024;
+    private static final int PREVIEW_SIZE_DIVIDER = 4;
+    private static final float THUMBNAIL_ASPECT_RATIO_TOLERANCE = 0.02f;
+    // Decoding a small cached JPEG is not worth a disk write unless the source is much larger
+    private static final int DISK_CACHE_MIN_SOURCE_PIXELS_MULTIPLE = 4;
+
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Receives previews on the loading thread.
+     */
+    public interface PreviewListener {
+
+        void onPreviewDecoded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo);
+
+    }
+
+    private final Context mContext;
+    private Uri mInputUri;
+    private Uri mOutputUri;
+    private final int mRequiredWidth;
+    private final int mRequiredHeight;
+    private final int mPreviewQuality;
+
+    private final PreviewListener mPreviewListener;
+
+    private boolean mPreviewPublished;
+    private Bitmap mCachedPreview;
+
+    private boolean mInputPrepared;
+    private Exception mPrepareException;
+    private String mCacheKey;
+    private BitmapDiskCache.Entry mDiskCacheEntry;
+    private boolean mCachedPublished;
+    private long mDiskCacheSourceLength = -1;
+
+    private volatile boolean mCancelled;
+    private volatile Call mCall;
+    private volatile FileChannel mCopyChannel;
+    private volatile BitmapFactory.Options mDecodeOptions;
+
+    /**
+     * @param previewListener - null if nobody is there to show a preview, previews are not decoded then
+     */
+    public BitmapLoader(@NonNull Context context,
+                        @NonNull Uri inputUri, @Nullable Uri outputUri,
+                        int requiredWidth, int requiredHeight,
+                        @TransformImageView.PreviewQuality int previewQuality,
+                        @Nullable PreviewListener previewListener) {
+        mContext = context;
+        mInputUri = inputUri;
+        mOutputUri = outputUri;
+        mRequiredWidth = requiredWidth;
+        mRequiredHeight = requiredHeight;
+        mPreviewQuality = previewQuality;
+        mPreviewListener = previewListener;
+        mPreviewPublished = previewListener == null;
+    }
+
+    /**
+     * I/O part of the load: looks the image up in {@link BitmapDiskCache} and downloads or copies it
+     * if it can't be read directly. It can be run on an I/O thread ahead of {@link #call()},
+     * which runs it inline otherwise.
+     */
+    public void prepareInput() {
+        if (mInputPrepared) {
+            return;
+        }
+        mInputPrepared = true;
+
+        if (mInputUri == null) {
+            mPrepareException = new NullPointerException("Input Uri cannot be null");
+            return;
+        }
+
+        // Key is made from the Uri as given, before it is replaced by a downloaded or copied file
+        mCacheKey = BitmapMemoryCache.createKey(mContext, mInputUri,
+                Math.max(mRequiredWidth, mRequiredHeight), mPreviewQuality);
+        mDiskCacheEntry = getDiskCacheEntry(mCacheKey);
+        if (mDiskCacheEntry != null && isRemoteUri(mInputUri) && !mPreviewPublished) {
+            // Download has to finish before the entry can be checked, cached bitmap is shown meanwhile
+            ExifInfo cachedExifInfo = createExifInfo(mDiskCacheEntry.getSourceInfo().getExifOrientation());
+            publishPreview(mDiskCacheEntry.getBitmap(), cachedExifInfo);
+            mPreviewPublished = true;
+            mCachedPreview = mDiskCacheEntry.getBitmap();
+            mCachedPublished = true;
+        }
+
+        try {
+            processInputUri();
+        } catch (NullPointerException | IllegalArgumentException | IOException e) {
+            mPrepareException = e;
+        }
+    }
+
+    /**
+     * Stops the work in progress from any thread: download is aborted, copy is stopped by closing
+     * its channel and decoder is asked to stop where the platform supports it.
+     */
+    @SuppressWarnings("deprecation")
+    public void cancel() {
+        mCancelled = true;
+
+        Call call = mCall;
+        if (call != null) {
+            call.cancel();
+        }
+        FileChannel copyChannel = mCopyChannel;
+        if (copyChannel != null) {
+            BitmapLoadUtils.close(copyChannel);
+        }
+        // No-op since Nougat, decode is abandoned once it returns then
+        BitmapFactory.Options decodeOptions = mDecodeOptions;
+        if (decodeOptions != null) {
+            decodeOptions.requestCancelDecode();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Loads the image and stores it in {@link BitmapDiskCache} if it is worth it.
+     *
+     * @throws CancellationException - if the load was cancelled
+     */
+    @NonNull
+    @Override
+    public LoadResult call() throws Exception {
+        LoadResult result = load();
+        writeDiskCacheEntry(result);
+        return result;
+    }
+
+    /**
+     * Same as {@link #call()}, but the disk cache is left to {@link #writeDiskCacheEntry(LoadResult)},
+     * so it can be written once the bitmap is shown.
+     */
+    @NonNull
+    LoadResult load() throws Exception {
+        if (!isCancelled()) {
+            prepareInput();
+        }
+        if (mPrepareException != null) {
+            throw mPrepareException;
+        }
+        if (isCancelled()) {
+            throw new CancellationException("Load cancelled");
+        }
+
+        final ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mInputUri, "r");
+        if (parcelFileDescriptor == null) {
+            throw new NullPointerException("ParcelFileDescriptor was null for given Uri: [" + mInputUri + "]");
+        }
+        final FileDescriptor fileDescriptor = parcelFileDescriptor.getFileDescriptor();
+
+        Bitmap bitmap;
+        ImageInfo imageInfo;
+        try {
+            // Single header read gives dimensions and exif, bounds are decoded only for unknown formats
+            imageInfo = BitmapLoadUtils.getImageInfo(mContext, mInputUri);
+
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            if (imageInfo.hasSize()) {
+                options.outWidth = imageInfo.getWidth();
+                options.outHeight = imageInfo.getHeight();
+            } else {
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+                if (options.outWidth == -1 || options.outHeight == -1) {
+                    throw new IllegalArgumentException("Bounds for bitmap could not be retrieved from the Uri: [" + mInputUri + "]");
+                }
+                imageInfo.setSize(options.outWidth, options.outHeight);
+            }
+
+            bitmap = decode(parcelFileDescriptor, fileDescriptor, options, imageInfo);
+        } finally {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                BitmapLoadUtils.close(parcelFileDescriptor);
+            }
+        }
+
+        if (isCancelled()) {
+            // Decode finished before it noticed cancellation, nobody will draw this bitmap
+            if (bitmap != mCachedPreview) {
+                BitmapPool.getInstance().put(bitmap);
+            }
+            throw new CancellationException("Load cancelled");
+        }
+        return new LoadResult(bitmap, createExifInfo(imageInfo.getExifOrientation()), imageInfo,
+                mInputUri.getPath(), (mOutputUri == null) ? null : mOutputUri.getPath());
+    }
+
+    /**
+     * @return - bitmap from {@link BitmapDiskCache} that was published as a preview, the one
+     * {@link #load()} may return as well
+     */
+    @Nullable
+    Bitmap getCachedPreview() {
+        return mCachedPreview;
+    }
+
+    @NonNull
+    private Bitmap decode(@NonNull ParcelFileDescriptor parcelFileDescriptor, @NonNull FileDescriptor fileDescriptor,
+                          @NonNull BitmapFactory.Options options, @NonNull ImageInfo imageInfo) throws IOException {
+        if (mDiskCacheEntry != null) {
+            if (mDiskCacheEntry.matches(parcelFileDescriptor.getStatSize(), imageInfo)) {
+                return mDiskCacheEntry.getBitmap();
+            }
+            // Published bitmap is owned by the view now
+            if (!mCachedPublished) {
+                BitmapPool.getInstance().put(mDiskCacheEntry.getBitmap());
+            }
+            BitmapDiskCache.getInstance(mContext).remove(mCacheKey);
+        }
+
+        if (!mPreviewPublished && imageInfo.hasThumbnail()) {
+            publishThumbnailPreview(imageInfo);
+        }
+
+        if (isCancelled()) {
+            throw new InterruptedIOException("Load cancelled");
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = getPreviewConfig(imageInfo.getMimeType());
+        mDecodeOptions = options;
+        BitmapLoadUtils.planDecode(mContext, options, imageInfo.getWidth(), imageInfo.getHeight(),
+                mRequiredWidth, mRequiredHeight);
+
+        Bitmap decodeSampledBitmap;
+        try {
+            decodeSampledBitmap = decodeReusingBitmap(fileDescriptor, options, imageInfo);
+        } catch (OutOfMemoryError error) {
+            // Decode was planned to fit the budget, a smaller retry would only hit the same wall
+            Log.e(TAG, "decode: BitmapFactory.decodeFileDescriptor: ", error);
+            BitmapPool.getInstance().put(options.inBitmap);
+            throw new IllegalStateException("Not enough memory to decode the Uri: [" + mInputUri + "]", error);
+        }
+
+        if (decodeSampledBitmap == null) {
+            BitmapPool.getInstance().put(options.inBitmap);
+            throw new IllegalArgumentException("Bitmap could not be decoded from the Uri: [" + mInputUri + "]");
+        }
+
+        if (isDiskCacheWorthy(decodeSampledBitmap, imageInfo)) {
+            // Written once the bitmap is delivered, see writeDiskCacheEntry()
+            mDiskCacheSourceLength = parcelFileDescriptor.getStatSize();
+        }
+        return decodeSampledBitmap;
+    }
+
+    /**
+     * Cached bitmaps are stored as JPEG, which is decoded as opaque.
+     */
+    @Nullable
+    private BitmapDiskCache.Entry getDiskCacheEntry(@NonNull String cacheKey) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = getPreviewConfig(ImageHeaderParser.MIME_TYPE_JPEG);
+        return BitmapDiskCache.getInstance(mContext).get(cacheKey, options);
+    }
+
+    /**
+     * Stores the decoded bitmap in {@link BitmapDiskCache} on the I/O pool, so JPEG encoding and
+     * the disk write don't delay the first frame. Bitmap is only read there.
+     */
+    void writeDiskCacheEntry(@NonNull final LoadResult result) {
+        if (mDiskCacheSourceLength < 0) {
+            return;
+        }
+        final BitmapDiskCache diskCache = BitmapDiskCache.getInstance(mContext);
+        final String cacheKey = mCacheKey;
+        final long sourceLength = mDiskCacheSourceLength;
+        mDiskCacheSourceLength = -1;
+        TaskExecutors.getIoExecutor(TaskExecutors.PRIORITY_BACKGROUND).execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!result.getBitmap().isRecycled()) {
+                    diskCache.put(cacheKey, result.getBitmap(), sourceLength, result.getImageInfo());
+                }
+            }
+        });
+    }
+
+    private void publishPreview(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo) {
+        if (mPreviewListener != null) {
+            mPreviewListener.onPreviewDecoded(preview, exifInfo);
+        }
+    }
+
+    private static boolean isDiskCacheWorthy(@NonNull Bitmap bitmap, @NonNull ImageInfo imageInfo) {
+        return !bitmap.hasAlpha() && (long) imageInfo.getWidth() * imageInfo.getHeight()
+                >= (long) DISK_CACHE_MIN_SOURCE_PIXELS_MULTIPLE * bitmap.getWidth() * bitmap.getHeight();
+    }
+
+    private static boolean isRemoteUri(@NonNull Uri uri) {
+        return "http".equals(uri.getScheme()) || "https".equals(uri.getScheme());
+    }
+
+    /**
+     * Picks bitmap config for {@link TransformImageView#PREVIEW_QUALITY_LOW_MEMORY}.
+     * Only JPEG sources are known to be opaque from the header.
+     */
+    @NonNull
+    private Bitmap.Config getPreviewConfig(@Nullable String mimeType) {
+        if (mPreviewQuality != TransformImageView.PREVIEW_QUALITY_LOW_MEMORY) {
+            return Bitmap.Config.ARGB_8888;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Bitmap.Config.HARDWARE;
+        } else if (ImageHeaderParser.MIME_TYPE_JPEG.equals(mimeType)) {
+            return Bitmap.Config.RGB_565;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Decodes into a pooled bitmap of the planned size if there is one, see {@link BitmapPool}.
+     */
+    @Nullable
+    private Bitmap decodeReusingBitmap(@NonNull FileDescriptor fileDescriptor, @NonNull BitmapFactory.Options options,
+                                       @NonNull ImageInfo imageInfo) {
+        setReusableBitmap(options, imageInfo);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap can't be reused for this image
+            Log.w(TAG, "decodeReusingBitmap: unable to reuse bitmap: " + e.getMessage());
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        }
+
+        if (bitmap != null && options.inScaled) {
+            // Scaled decode marks bitmap with target density, restore the default one for drawing
+            bitmap.setDensity(mContext.getResources().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    private static void setReusableBitmap(@NonNull BitmapFactory.Options options, @NonNull ImageInfo imageInfo) {
+        options.inBitmap = null;
+        // Hardware bitmaps are immutable and can't be decoded into an existing bitmap
+        if (!BitmapPool.isSupported() || isHardwareConfig(options.inPreferredConfig)) {
+            return;
+        }
+
+        options.inMutable = true;
+        Point size = BitmapLoadUtils.getDecodedSize(options, imageInfo.getWidth(), imageInfo.getHeight());
+        options.inBitmap = BitmapPool.getInstance().get(size.x, size.y, options.inPreferredConfig);
+    }
+
+    private static boolean isHardwareConfig(@Nullable Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    @NonNull
+    private static ExifInfo createExifInfo(int exifOrientation) {
+        int exifDegrees = BitmapLoadUtils.exifToDegrees(exifOrientation);
+        int exifTranslation = BitmapLoadUtils.exifToTranslation(exifOrientation);
+
+        return new ExifInfo(exifOrientation, exifDegrees, exifTranslation);
+    }
+
+    private void processInputUri() throws NullPointerException, IOException {
+        String inputUriScheme = mInputUri.getScheme();
+        Log.d(TAG, "Uri scheme: " + inputUriScheme);
+        if ("http".equals(inputUriScheme) || "https".equals(inputUriScheme)) {
+            try {
+                downloadFile(mInputUri, mOutputUri);
+            } catch (NullPointerException | IOException e) {
+                Log.e(TAG, "Downloading failed", e);
+                throw e;
+            }
+        } else if ("content".equals(inputUriScheme)) {
+            String path = getFilePath();
+            if (!TextUtils.isEmpty(path) && new File(path).exists()) {
+                mInputUri = Uri.fromFile(new File(path));
+            } else {
+                try {
+                    copyFile(mInputUri, mOutputUri);
+                } catch (NullPointerException | IOException e) {
+                    Log.e(TAG, "Copying failed", e);
+                    throw e;
+                }
+            }
+        } else if (!"file".equals(inputUriScheme)) {
+            Log.e(TAG, "Invalid Uri scheme " + inputUriScheme);
+            throw new IllegalArgumentException("Invalid Uri scheme" + inputUriScheme);
+        }
+    }
+
+    private String getFilePath() {
+        if (ContextCompat.checkSelfPermission(mContext, permission.READ_EXTERNAL_STORAGE)
+                == PackageManager.PERMISSION_GRANTED) {
+            return FileUtils.getPath(mContext, mInputUri);
+        } else {
+            return null;
+        }
+    }
+
+    private void copyFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
+        Log.d(TAG, "copyFile");
+
+        if (outputUri == null) {
+            throw new NullPointerException("Output Uri is null - cannot copy image");
+        }
+
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        try {
+            ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(inputUri, "r");
+            if (parcelFileDescriptor == null) {
+                throw new NullPointerException("ParcelFileDescriptor for given input Uri is null");
+            }
+            inputStream = new ParcelFileDescriptor.AutoCloseInputStream(parcelFileDescriptor);
+            outputStream = new FileOutputStream(new File(outputUri.getPath()));
+
+            // Closed by cancelLoad(), copy then fails with AsynchronousCloseException
+            mCopyChannel = inputStream.getChannel();
+            if (isCancelled()) {
+                throw new InterruptedIOException("Copy cancelled");
+            }
+            FileUtils.copyChannel(mCopyChannel, outputStream.getChannel());
+        } finally {
+            mCopyChannel = null;
+            BitmapLoadUtils.close(outputStream);
+            BitmapLoadUtils.close(inputStream);
+
+            // swap uris, because input image was copied to the output destination
+            // (cropped image will override it later)
+            mInputUri = mOutputUri;
+        }
+    }
+
+    private void downloadFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
+        Log.d(TAG, "downloadFile");
+
+        if (outputUri == null) {
+            throw new NullPointerException("Output Uri is null - cannot download image");
+        }
+
+        OkHttpClient client = new OkHttpClient();
+        ResumableDownload download = new ResumableDownload(mContext, inputUri.toString());
+
+        BufferedSource source = null;
+        Sink sink = null;
+        Response response = null;
+        download.claim();
+        try {
+            long resumeOffset = download.getResumeOffset();
+            Request.Builder requestBuilder = new Request.Builder()
+                    .url(inputUri.toString());
+            if (resumeOffset > 0) {
+                Log.d(TAG, "Resuming download from byte " + resumeOffset);
+                requestBuilder.header("Range", "bytes=" + resumeOffset + "-")
+                        .header("If-Range", download.getValidator());
+            }
+            mCall = client.newCall(requestBuilder.build());
+            if (isCancelled()) {
+                mCall.cancel();
+            }
+            response = mCall.execute();
+
+            if (response.code() == HTTP_RANGE_NOT_SATISFIABLE && download.isComplete()) {
+                Log.d(TAG, "Partial file is already complete");
+            } else if (response.code() == HTTP_PARTIAL_CONTENT) {
+                if (resumeOffset <= 0 || getRangeStart(response) != resumeOffset
+                        || !download.matches(getValidator(response), getRangeTotal(response))) {
+                    download.delete();
+                    throw new IOException("Unexpected Content-Range for Uri: [" + inputUri + "]");
+                }
+                source = response.body().source();
+                sink = Okio.sink(new FileOutputStream(download.getPartFile(), true));
+                readAllWithPreview(source, sink, resumeOffset, download.getTotalLength(), download.getPartFile());
+            } else if (response.isSuccessful() && response.body().contentLength() < 0) {
+                // Completeness of a body without Content-Length can't be verified later, it is not kept for resuming
+                download.delete();
+                File outputFile = new File(outputUri.getPath());
+                source = response.body().source();
+                sink = Okio.sink(outputFile);
+                readAllWithPreview(source, sink, 0, -1, outputFile);
+                return;
+            } else if (response.isSuccessful()) {
+                long contentLength = response.body().contentLength();
+                download.restart(getValidator(response), contentLength);
+
+                source = response.body().source();
+                sink = Okio.sink(new FileOutputStream(download.getPartFile(), false));
+                readAllWithPreview(source, sink, 0, contentLength, download.getPartFile());
+            } else {
+                if (response.code() == HTTP_RANGE_NOT_SATISFIABLE) {
+                    download.delete();
+                }
+                throw new IOException("Unexpected response code " + response.code() + " for Uri: [" + inputUri + "]");
+            }
+
+            BitmapLoadUtils.close(sink);
+            sink = null;
+            download.moveTo(outputUri.getPath());
+        } catch (IOException e) {
+            if (download.getValidator() == null) {
+                download.delete();
+            }
+            throw e;
+        } finally {
+            BitmapLoadUtils.close(source);
+            BitmapLoadUtils.close(sink);
+            if (response != null) {
+                BitmapLoadUtils.close(response.body());
+            }
+            client.dispatcher().cancelAll();
+            download.release();
+
+            // swap uris, because input image was downloaded to the output destination
+            // (cropped image will override it later)
+            mInputUri = mOutputUri;
+        }
+    }
+
+    /**
+     * @return - strong ETag or Last-Modified value of the response, null if it cannot be used with If-Range
+     */
+    @Nullable
+    private static String getValidator(@NonNull Response response) {
+        String eTag = response.header("ETag");
+        if (!TextUtils.isEmpty(eTag) && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * Parses first byte position from the "Content-Range: bytes start-end/total" header.
+     */
+    private static long getRangeStart(@NonNull Response response) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dashIndex = contentRange.indexOf('-');
+        if (dashIndex < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dashIndex).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses complete length from the "Content-Range: bytes start-end/total" header, -1 if it is unknown ("*").
+     */
+    private static long getRangeTotal(@NonNull Response response) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int slashIndex = contentRange.indexOf('/');
+        if (slashIndex < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slashIndex + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Tees the response body into the partial file. If the body turns out to be a progressive JPEG,
+     * partially downloaded file is decoded once enough scans are available and published as a preview.
+     */
+    private void readAllWithPreview(@NonNull BufferedSource source, @NonNull Sink sink,
+                                    long offset, long totalLength, @NonNull File partialFile) throws IOException {
+        boolean previewWanted = !mPreviewPublished
+                && (totalLength < 0 || totalLength >= PREVIEW_MIN_DOWNLOAD_SIZE);
+        long previewThreshold = totalLength > 0 ? totalLength / 4 : PREVIEW_MIN_DOWNLOAD_SIZE;
+        boolean progressiveChecked = false;
+
+        Buffer buffer = new Buffer();
+        long downloaded = offset;
+        long read;
+        while ((read = source.read(buffer, DOWNLOAD_SEGMENT_SIZE)) != -1) {
+            if (isCancelled()) {
+                throw new InterruptedIOException("Download cancelled");
+            }
+            sink.write(buffer, read);
+            downloaded += read;
+
+            if (previewWanted && downloaded >= previewThreshold) {
+                sink.flush();
+                if (!progressiveChecked) {
+                    progressiveChecked = true;
+                    previewWanted = isProgressiveJpeg(partialFile);
+                }
+                if (previewWanted) {
+                    previewWanted = !publishPartialPreview(partialFile);
+                    previewThreshold *= 2;
+                }
+            }
+        }
+        sink.flush();
+    }
+
+    private boolean isProgressiveJpeg(@NonNull File file) {
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            return new ImageHeaderParser(stream.getChannel()).isProgressiveJpeg();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "isProgressiveJpeg: ", e);
+            return false;
+        } finally {
+            BitmapLoadUtils.close(stream);
+        }
+    }
+
+    /**
+     * @return - true if a preview was decoded from the partially downloaded file and published
+     */
+    private boolean publishPartialPreview(@NonNull File partialFile) {
+        ImageInfo imageInfo = BitmapLoadUtils.getImageInfo(mContext, Uri.fromFile(partialFile));
+        if (!imageInfo.hasSize()) {
+            return false;
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = imageInfo.getWidth();
+        options.outHeight = imageInfo.getHeight();
+
+        options.inSampleSize = BitmapLoadUtils.calculateInSampleSize(options,
+                mRequiredWidth / PREVIEW_SIZE_DIVIDER, mRequiredHeight / PREVIEW_SIZE_DIVIDER);
+        options.inJustDecodeBounds = false;
+
+        Bitmap preview;
+        try {
+            preview = BitmapFactory.decodeFile(partialFile.getPath(), options);
+        } catch (OutOfMemoryError error) {
+            Log.e(TAG, "publishPartialPreview: BitmapFactory.decodeFile: ", error);
+            return false;
+        }
+        if (preview == null) {
+            return false;
+        }
+
+        ExifInfo exifInfo = createExifInfo(imageInfo.getExifOrientation());
+        publishPreview(preview, exifInfo);
+        mPreviewPublished = true;
+        return true;
+    }
+
+    /**
+     * Decodes the JPEG thumbnail embedded into exif (IFD1), it takes milliseconds compared to
+     * the sampled decode of a large camera photo.
+     */
+    private void publishThumbnailPreview(@NonNull ImageInfo imageInfo) {
+        byte[] thumbnail = readThumbnail(imageInfo);
+        if (thumbnail == null) {
+            return;
+        }
+
+        Bitmap preview;
+        try {
+            preview = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+        } catch (OutOfMemoryError error) {
+            Log.e(TAG, "publishThumbnailPreview: BitmapFactory.decodeByteArray: ", error);
+            return;
+        }
+        if (preview == null) {
+            return;
+        }
+
+        // Some cameras store 4:3 thumbnails with black bars for other aspect ratios,
+        // those can't stand in for the image
+        float imageAspectRatio = (float) imageInfo.getWidth() / imageInfo.getHeight();
+        float thumbnailAspectRatio = (float) preview.getWidth() / preview.getHeight();
+        if (Math.abs(thumbnailAspectRatio / imageAspectRatio - 1) > THUMBNAIL_ASPECT_RATIO_TOLERANCE) {
+            preview.recycle();
+            return;
+        }
+
+        ExifInfo exifInfo = createExifInfo(imageInfo.getExifOrientation());
+        publishPreview(preview, exifInfo);
+        mPreviewPublished = true;
+    }
+
+    @Nullable
+    private byte[] readThumbnail(@NonNull ImageInfo imageInfo) {
+        FileInputStream stream = null;
+        try {
+            ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mInputUri, "r");
+            if (parcelFileDescriptor == null) {
+                return null;
+            }
+            stream = new ParcelFileDescriptor.AutoCloseInputStream(parcelFileDescriptor);
+
+            byte[] thumbnail = new byte[imageInfo.getThumbnailLength()];
+            ByteBuffer buffer = ByteBuffer.wrap(thumbnail);
+            FileChannel channel = stream.getChannel();
+            long position = imageInfo.getThumbnailOffset();
+            int read;
+            while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+                position += read;
+            }
+            return buffer.hasRemaining() ? null : thumbnail;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "readThumbnail: ", e);
+            return null;
+        } finally {
+            BitmapLoadUtils.close(stream);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.yalantis.ucrop.task;
+
+/**
+ * Admission control of {@link BatchCropRunner}: decides when the next job may start, given the number
+ * of running jobs and their estimated peak memory. A job that doesn't fit into the budget even alone
+ * is admitted once nothing else runs.
+ */
+class CropAdmission {
+
+    // Native crop keeps the image as 8 bit RGB
+    private static final int NATIVE_BYTES_PER_PIXEL = 3;
+
+    private final long mMemoryBudget;
+    private final int mMaxConcurrentJobs;
+    private final Object mLock = new Object();
+
+    private long mMemoryInUse;
+    private int mRunningJobs;
+    private int mMaxRunningJobs;
+    private boolean mCancelled;
+
+    CropAdmission(long memoryBudget, int maxConcurrentJobs) {
+        mMemoryBudget = memoryBudget;
+        mMaxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    /**
+     * Blocks until the job can be started. Admitted job must be released with {@link #release(long)}.
+     *
+     * @return - false if admission was cancelled meanwhile
+     */
+    boolean admit(long estimatedMemory) {
+        synchronized (mLock) {
+            while (!mCancelled && mRunningJobs > 0
+                    && (mRunningJobs >= mMaxConcurrentJobs || mMemoryInUse + estimatedMemory > mMemoryBudget)) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (mCancelled) {
+                return false;
+            }
+            mRunningJobs++;
+            mMemoryInUse += estimatedMemory;
+            mMaxRunningJobs = Math.max(mMaxRunningJobs, mRunningJobs);
+            return true;
+        }
+    }
+
+    /**
+     * @param estimatedMemory - the same estimate the job was admitted with
+     */
+    void release(long estimatedMemory) {
+        synchronized (mLock) {
+            mRunningJobs--;
+            mMemoryInUse -= estimatedMemory;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Wakes up a waiting {@link #admit(long)}, no more jobs are admitted after that.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            mCancelled = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all admitted jobs are released.
+     */
+    void awaitIdle() {
+        synchronized (mLock) {
+            while (mRunningJobs > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    int getRunningJobs() {
+        synchronized (mLock) {
+            return mRunningJobs;
+        }
+    }
+
+    int getMaxRunningJobs() {
+        synchronized (mLock) {
+            return mMaxRunningJobs;
+        }
+    }
+
+    /**
+     * Native crop holds the decoded source and its resized and rotated copy at the same time.
+     * Rotated copy takes the bounding box of the rotated image.
+     *
+     * @param resizeScale - see {@link com.yalantis.ucrop.util.CropGeometryUtils#getResizeScale(float, float, int, int)}
+     * @param angle       - rotation in degrees
+     */
+    static long estimatePeakMemory(long sourcePixels, float resizeScale, float angle) {
+        double radians = Math.toRadians(angle);
+        double boundsScale = Math.abs(Math.cos(radians)) + Math.abs(Math.sin(radians));
+        double transformedPixels = sourcePixels * resizeScale * resizeScale * boundsScale * boundsScale;
+
+        return (long) ((sourcePixels + transformedPixels) * NATIVE_BYTES_PER_PIXEL);
+    }
+
+}
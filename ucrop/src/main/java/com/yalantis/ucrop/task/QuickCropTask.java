@@ -0,0 +1,76 @@
+package com.yalantis.ucrop.task;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.util.BitmapLoadUtils;
+import com.yalantis.ucrop.util.BitmapPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Saves the crop drawn from the view bitmap at screen resolution, the first phase of
+ * {@link com.yalantis.ucrop.view.CropImageView#cropAndSaveImage(Bitmap.CompressFormat, int, Uri, BitmapCropCallback, BitmapCropCallback)}.
+ * Saved bitmap is returned to {@link BitmapPool}.
+ */
+public class QuickCropTask extends AsyncTask<Void, Void, Throwable> {
+
+    private final Bitmap mCroppedBitmap;
+    private final int mCroppedImageWidth, mCroppedImageHeight;
+    private final Bitmap.CompressFormat mCompressFormat;
+    private final int mCompressQuality;
+    private final String mImageOutputPath;
+    private final BitmapCropCallback mCropCallback;
+
+    public QuickCropTask(@NonNull Bitmap croppedBitmap, @NonNull Bitmap.CompressFormat compressFormat, int compressQuality,
+                         @NonNull String imageOutputPath, @Nullable BitmapCropCallback cropCallback) {
+        mCroppedBitmap = croppedBitmap;
+        mCroppedImageWidth = croppedBitmap.getWidth();
+        mCroppedImageHeight = croppedBitmap.getHeight();
+        mCompressFormat = compressFormat;
+        mCompressQuality = compressQuality;
+        mImageOutputPath = imageOutputPath;
+        mCropCallback = cropCallback;
+    }
+
+    @Override
+    @Nullable
+    protected Throwable doInBackground(Void... params) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(new File(mImageOutputPath));
+            if (!mCroppedBitmap.compress(mCompressFormat, mCompressQuality, outputStream)) {
+                return new IOException("Unable to compress bitmap");
+            }
+            return null;
+        } catch (IOException e) {
+            return e;
+        } finally {
+            BitmapLoadUtils.close(outputStream);
+            BitmapPool.getInstance().put(mCroppedBitmap);
+        }
+    }
+
+    /**
+     * Quick crop covers the whole crop bounds, offsets are known only to the full resolution crop.
+     */
+    @Override
+    protected void onPostExecute(@Nullable Throwable t) {
+        if (mCropCallback != null) {
+            if (t == null) {
+                Uri uri = Uri.fromFile(new File(mImageOutputPath));
+                mCropCallback.onBitmapCropped(uri, 0, 0, mCroppedImageWidth, mCroppedImageHeight);
+            } else {
+                mCropCallback.onCropFailure(t);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.yalantis.ucrop.task;
+
+import android.os.Process;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executors owned by the library, so loads and crops neither wait behind unrelated AsyncTasks
+ * of the app on the global serial executor nor block each other.
+ * <p/>
+ * Downloads and copies run on a small I/O pool, decoding and cropping on a CPU pool sized
+ * by the number of cores. Queued tasks are ordered by priority, then by submission order.
+ * App can route all tasks to its own executor with {@link #setExecutor(Executor)}.
+ */
+public class TaskExecutors {
+
+    /**
+     * Prefetches and batch jobs nobody is looking at yet.
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+    /**
+     * Image or crop result the user is waiting for.
+     */
+    public static final int PRIORITY_INTERACTIVE = 1;
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int IO_POOL_SIZE = 2;
+    // Leave a core for the UI thread, more threads would only multiply decode memory
+    private static final int CPU_POOL_SIZE = Math.max(1, Math.min(CPU_COUNT - 1, 4));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private static ThreadPoolExecutor sIoPool;
+    private static ThreadPoolExecutor sCpuPool;
+    private static Executor sCustomExecutor;
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * @param executor - executor for all load and crop tasks, null to use the library pools.
+     *                 Priorities are not applied to a custom executor.
+     */
+    public static synchronized void setExecutor(@Nullable Executor executor) {
+        sCustomExecutor = executor;
+    }
+
+    /**
+     * @return - number of tasks the CPU pool runs at the same time
+     */
+    public static int getCpuPoolSize() {
+        return CPU_POOL_SIZE;
+    }
+
+    /**
+     * @return - executor for downloads and copies
+     */
+    @NonNull
+    public static synchronized Executor getIoExecutor(@Priority int priority) {
+        if (sCustomExecutor != null) {
+            return sCustomExecutor;
+        }
+        if (sIoPool == null) {
+            sIoPool = createPool("uCrop-io", IO_POOL_SIZE);
+        }
+        return new PriorityExecutor(sIoPool, priority);
+    }
+
+    /**
+     * @return - executor for decoding and cropping
+     */
+    @NonNull
+    public static synchronized Executor getCpuExecutor(@Priority int priority) {
+        if (sCustomExecutor != null) {
+            return sCustomExecutor;
+        }
+        if (sCpuPool == null) {
+            sCpuPool = createPool("uCrop-cpu", CPU_POOL_SIZE);
+        }
+        return new PriorityExecutor(sCpuPool, priority);
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor createPool(@NonNull final String name, int size) {
+        // Queue is unbounded, so the pool never grows over the core size
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + " #" + mCount.getAndIncrement());
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static class PriorityExecutor implements Executor {
+
+        private final Executor mPool;
+        private final int mPriority;
+
+        PriorityExecutor(@NonNull Executor pool, int priority) {
+            mPool = pool;
+            mPriority = priority;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mPool.execute(new PriorityRunnable(command, mPriority, sSequence.getAndIncrement()));
+        }
+
+    }
+
+    private static class PriorityRunnable implements Runnable, Comparable<PriorityRunnable> {
+
+        private final Runnable mRunnable;
+        private final int mPriority;
+        private final long mSequence;
+
+        PriorityRunnable(@NonNull Runnable runnable, int priority, long sequence) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PriorityRunnable other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_BACKGROUND, PRIORITY_INTERACTIVE})
+    public @interface Priority {
+    }
+
+}
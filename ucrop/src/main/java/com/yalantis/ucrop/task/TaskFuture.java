@@ -0,0 +1,127 @@
+package com.yalantis.ucrop.task;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * {@link java.util.concurrent.Future} of a load or crop started by {@link com.yalantis.ucrop.UCropEngine}.
+ * <p/>
+ * Result can be waited for with {@link #get()} or delivered to listeners on an executor of the caller's
+ * choice, e.g. {@link #directExecutor()} to chain further work on the worker thread without a round
+ * trip through the main looper. Listeners added after completion are called right away.
+ */
+public class TaskFuture<V> extends FutureTask<V> {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private static Executor sMainThreadExecutor;
+
+    public interface Listener<V> {
+
+        void onSuccess(@NonNull V result);
+
+        /**
+         * @param throwable - {@link CancellationException} if the task was cancelled
+         */
+        void onFailure(@NonNull Throwable throwable);
+
+    }
+
+    private final List<Runnable> mPendingListeners = new ArrayList<>();
+    private boolean mListenersNotified;
+
+    public TaskFuture(@NonNull Callable<V> callable) {
+        super(callable);
+    }
+
+    /**
+     * Runs the listener on the thread that completes the task (or on the calling one if it is done already).
+     * Listener must be quick, otherwise it holds up the worker.
+     */
+    @NonNull
+    public static Executor directExecutor() {
+        return DIRECT_EXECUTOR;
+    }
+
+    @NonNull
+    public static synchronized Executor mainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        return sMainThreadExecutor;
+    }
+
+    public void addListener(@NonNull final Listener<V> listener, @NonNull final Executor executor) {
+        Runnable notification = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(listener);
+                    }
+                });
+            }
+        };
+        synchronized (mPendingListeners) {
+            if (!mListenersNotified) {
+                mPendingListeners.add(notification);
+                return;
+            }
+        }
+        notification.run();
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> notifications;
+        synchronized (mPendingListeners) {
+            mListenersNotified = true;
+            notifications = new ArrayList<>(mPendingListeners);
+            mPendingListeners.clear();
+        }
+        for (Runnable notification : notifications) {
+            notification.run();
+        }
+    }
+
+    private void deliver(@NonNull Listener<V> listener) {
+        V result;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            listener.onFailure(e);
+            return;
+        } catch (ExecutionException e) {
+            listener.onFailure(e.getCause() != null ? e.getCause() : e);
+            return;
+        } catch (InterruptedException e) {
+            // Task is done, get() doesn't wait
+            Thread.currentThread().interrupt();
+            listener.onFailure(e);
+            return;
+        }
+        listener.onSuccess(result);
+    }
+
+}
@@ -0,0 +1,327 @@
+package com.yalantis.ucrop.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.yalantis.ucrop.model.ImageInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Keeps downsampled images on disk, so a large photo that was opened before is decoded from
+ * a small JPEG instead of the full resolution source.
+ * <p/>
+ * Bitmaps are stored as decoded (exif orientation is applied at draw time), together with the size
+ * of the source file and image, which are checked before an entry is used. Files are written to
+ * a temporary file and renamed, so a reader never sees a partial entry. Total size is bounded,
+ * least recently used entries are deleted first.
+ */
+public class BitmapDiskCache {
+
+    private static final String TAG = "BitmapDiskCache";
+
+    private static final String CACHE_DIRECTORY = "ucrop_previews";
+    private static final String IMAGE_FILE_EXTENSION = ".jpg";
+    private static final String META_FILE_EXTENSION = ".meta";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private static final String META_KEY = "key";
+    private static final String META_SOURCE_LENGTH = "sourceLength";
+    private static final String META_SOURCE_WIDTH = "sourceWidth";
+    private static final String META_SOURCE_HEIGHT = "sourceHeight";
+    private static final String META_EXIF_ORIENTATION = "exifOrientation";
+    private static final String META_WIDTH = "width";
+    private static final String META_HEIGHT = "height";
+
+    private static final long MAX_SIZE = 32 * 1024 * 1024;
+    private static final int COMPRESS_QUALITY = 90;
+    // Temporary files left by a process that was killed in the middle of a write
+    private static final long TEMP_FILE_EXPIRATION = 60 * 60 * 1000;
+
+    private static BitmapDiskCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    public static class Entry {
+
+        private final Bitmap mBitmap;
+        private final long mSourceLength;
+        private final ImageInfo mSourceInfo;
+
+        Entry(@NonNull Bitmap bitmap, long sourceLength, @NonNull ImageInfo sourceInfo) {
+            mBitmap = bitmap;
+            mSourceLength = sourceLength;
+            mSourceInfo = sourceInfo;
+        }
+
+        @NonNull
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * @return - size and exif orientation of the source image the entry was made from
+         */
+        @NonNull
+        public ImageInfo getSourceInfo() {
+            return mSourceInfo;
+        }
+
+        /**
+         * @return - true if the entry was made from a source file of the same length and image size
+         */
+        public boolean matches(long sourceLength, @NonNull ImageInfo imageInfo) {
+            return mSourceLength == sourceLength
+                    && mSourceInfo.getWidth() == imageInfo.getWidth() && mSourceInfo.getHeight() == imageInfo.getHeight();
+        }
+
+    }
+
+    @NonNull
+    public static synchronized BitmapDiskCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new BitmapDiskCache(new File(context.getCacheDir(), CACHE_DIRECTORY), MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    BitmapDiskCache(@NonNull File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Decodes a cached bitmap with the given options, {@link BitmapFactory.Options#inBitmap}
+     * is taken from {@link BitmapPool} if possible.
+     *
+     * @return - cached entry or null if there is none for the key
+     */
+    @Nullable
+    public Entry get(@NonNull String key, @NonNull BitmapFactory.Options options) {
+        String fileName = FileUtils.md5(key);
+        File imageFile = new File(mDirectory, fileName + IMAGE_FILE_EXTENSION);
+        File metaFile = new File(mDirectory, fileName + META_FILE_EXTENSION);
+        if (!imageFile.exists() || !metaFile.exists()) {
+            return null;
+        }
+
+        Properties meta = readProperties(metaFile);
+        if (meta == null || !key.equals(meta.getProperty(META_KEY))) {
+            return null;
+        }
+
+        int width, height;
+        long sourceLength;
+        ImageInfo sourceInfo = new ImageInfo();
+        try {
+            width = Integer.parseInt(meta.getProperty(META_WIDTH));
+            height = Integer.parseInt(meta.getProperty(META_HEIGHT));
+            sourceLength = Long.parseLong(meta.getProperty(META_SOURCE_LENGTH));
+            sourceInfo.setSize(Integer.parseInt(meta.getProperty(META_SOURCE_WIDTH)),
+                    Integer.parseInt(meta.getProperty(META_SOURCE_HEIGHT)));
+            sourceInfo.setExifOrientation(Integer.parseInt(meta.getProperty(META_EXIF_ORIENTATION)));
+        } catch (NumberFormatException e) {
+            remove(key);
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        options.inScaled = false;
+        options.inBitmap = null;
+        if (BitmapPool.isSupported() && options.inPreferredConfig != null && !isHardwareConfig(options.inPreferredConfig)) {
+            options.inMutable = true;
+            options.inBitmap = BitmapPool.getInstance().get(width, height, options.inPreferredConfig);
+        }
+
+        Bitmap bitmap;
+        try {
+            try {
+                bitmap = BitmapFactory.decodeFile(imageFile.getPath(), options);
+            } catch (IllegalArgumentException e) {
+                BitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeFile(imageFile.getPath(), options);
+            }
+        } catch (OutOfMemoryError error) {
+            Log.e(TAG, "get: BitmapFactory.decodeFile: ", error);
+            return null;
+        }
+
+        // Meta and image are renamed one after the other, they might come from different writes
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            BitmapPool.getInstance().put(bitmap);
+            remove(key);
+            return null;
+        }
+
+        if (!imageFile.setLastModified(System.currentTimeMillis())) {
+            Log.w(TAG, "get: unable to touch " + imageFile);
+        }
+        return new Entry(bitmap, sourceLength, sourceInfo);
+    }
+
+    /**
+     * Stores the bitmap as JPEG, so it is meant for opaque bitmaps only.
+     *
+     * @param sourceLength - length of the source file in bytes
+     * @param imageInfo    - size and exif orientation of the source image
+     */
+    public void put(@NonNull String key, @NonNull Bitmap bitmap, long sourceLength, @NonNull ImageInfo imageInfo) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create directory: " + mDirectory);
+            return;
+        }
+
+        String fileName = FileUtils.md5(key);
+        File imageFile = new File(mDirectory, fileName + IMAGE_FILE_EXTENSION);
+        File metaFile = new File(mDirectory, fileName + META_FILE_EXTENSION);
+
+        Properties meta = createMeta(key, bitmap.getWidth(), bitmap.getHeight(), sourceLength, imageInfo);
+
+        File imageTempFile = null;
+        File metaTempFile = null;
+        OutputStream outputStream = null;
+        try {
+            imageTempFile = File.createTempFile(fileName, TEMP_FILE_EXTENSION, mDirectory);
+            outputStream = new FileOutputStream(imageTempFile);
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, COMPRESS_QUALITY, outputStream)) {
+                throw new IOException("Unable to compress bitmap");
+            }
+            BitmapLoadUtils.close(outputStream);
+
+            metaTempFile = File.createTempFile(fileName, TEMP_FILE_EXTENSION, mDirectory);
+            outputStream = new FileOutputStream(metaTempFile);
+            meta.store(outputStream, null);
+            BitmapLoadUtils.close(outputStream);
+            outputStream = null;
+
+            if (!imageTempFile.renameTo(imageFile) || !metaTempFile.renameTo(metaFile)) {
+                throw new IOException("Unable to rename cache files for " + imageFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "put: ", e);
+            remove(key);
+        } finally {
+            BitmapLoadUtils.close(outputStream);
+            deleteFile(imageTempFile);
+            deleteFile(metaTempFile);
+        }
+
+        trimToSize();
+    }
+
+    public void remove(@NonNull String key) {
+        String fileName = FileUtils.md5(key);
+        deleteFile(new File(mDirectory, fileName + IMAGE_FILE_EXTENSION));
+        deleteFile(new File(mDirectory, fileName + META_FILE_EXTENSION));
+    }
+
+    /**
+     * @return - what is stored next to a cached bitmap of the given size, see {@link #get(String, BitmapFactory.Options)}
+     */
+    @NonNull
+    static Properties createMeta(@NonNull String key, int width, int height, long sourceLength, @NonNull ImageInfo imageInfo) {
+        Properties meta = new Properties();
+        meta.setProperty(META_KEY, key);
+        meta.setProperty(META_WIDTH, String.valueOf(width));
+        meta.setProperty(META_HEIGHT, String.valueOf(height));
+        meta.setProperty(META_SOURCE_LENGTH, String.valueOf(sourceLength));
+        meta.setProperty(META_SOURCE_WIDTH, String.valueOf(imageInfo.getWidth()));
+        meta.setProperty(META_SOURCE_HEIGHT, String.valueOf(imageInfo.getHeight()));
+        meta.setProperty(META_EXIF_ORIENTATION, String.valueOf(imageInfo.getExifOrientation()));
+        return meta;
+    }
+
+    /**
+     * Deletes least recently used entries (and temporary files left by a killed process) until
+     * the cache fits into its max size.
+     */
+    synchronized void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSize) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+
+        String fileName;
+        for (File file : files) {
+            if (size <= mMaxSize) {
+                break;
+            }
+            fileName = file.getName();
+            if (fileName.endsWith(TEMP_FILE_EXTENSION)
+                    && System.currentTimeMillis() - file.lastModified() > TEMP_FILE_EXPIRATION) {
+                size -= file.length();
+                deleteFile(file);
+                continue;
+            } else if (!fileName.endsWith(IMAGE_FILE_EXTENSION)) {
+                continue;
+            }
+            size -= file.length();
+            deleteFile(file);
+
+            File metaFile = new File(mDirectory,
+                    fileName.substring(0, fileName.length() - IMAGE_FILE_EXTENSION.length()) + META_FILE_EXTENSION);
+            size -= metaFile.length();
+            deleteFile(metaFile);
+        }
+    }
+
+    @Nullable
+    private static Properties readProperties(@NonNull File file) {
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            properties.load(inputStream);
+            return properties;
+        } catch (IOException e) {
+            Log.e(TAG, "readProperties: ", e);
+            return null;
+        } finally {
+            BitmapLoadUtils.close(inputStream);
+        }
+    }
+
+    private static boolean isHardwareConfig(@NonNull Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    private static void deleteFile(@Nullable File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete: " + file);
+        }
+    }
+
+}
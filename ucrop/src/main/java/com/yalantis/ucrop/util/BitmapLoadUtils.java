@@ -1,14 +1,19 @@
 package com.yalantis.ucrop.util;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.RectF;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -16,11 +21,17 @@ import android.view.Display;
 import android.view.WindowManager;
 
 import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.model.ImageInfo;
 import com.yalantis.ucrop.task.BitmapLoadTask;
+import com.yalantis.ucrop.task.TaskExecutors;
+import com.yalantis.ucrop.view.TransformImageView;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by Oleksii Shliama (https://github.com/shliama).
@@ -29,20 +40,62 @@ public class BitmapLoadUtils {
 
     private static final String TAG = "BitmapLoadUtils";
 
-    public static void decodeBitmapInBackground(@NonNull Context context,
-                                                @NonNull Uri uri, @Nullable Uri outputUri,
-                                                int requiredWidth, int requiredHeight,
-                                                BitmapLoadCallback loadCallback) {
+    private static final int HEADER_BUFFER_SIZE = 16 * 1024;
 
-        new BitmapLoadTask(context, uri, outputUri, requiredWidth, requiredHeight, loadCallback).execute();
+    private static final int DECODE_MEMORY_BUDGET_DIVIDER = 4;
+    private static final int FREE_HEAP_BUDGET_DIVIDER = 2;
+    private static final double MAX_DECODE_SCALE_STEP = 0.9;
+
+    @NonNull
+    public static BitmapLoadTask decodeBitmapInBackground(@NonNull Context context,
+                                                          @NonNull Uri uri, @Nullable Uri outputUri,
+                                                          int requiredWidth, int requiredHeight,
+                                                          BitmapLoadCallback loadCallback) {
+
+        return decodeBitmapInBackground(context, uri, outputUri, requiredWidth, requiredHeight,
+                TransformImageView.DEFAULT_PREVIEW_QUALITY, loadCallback);
+    }
+
+    /**
+     * @return - started task, see {@link BitmapLoadTask#cancelLoad()}
+     */
+    @NonNull
+    public static BitmapLoadTask decodeBitmapInBackground(@NonNull Context context,
+                                                          @NonNull Uri uri, @Nullable Uri outputUri,
+                                                          int requiredWidth, int requiredHeight,
+                                                          @TransformImageView.PreviewQuality int previewQuality,
+                                                          BitmapLoadCallback loadCallback) {
+
+        BitmapLoadTask task = new BitmapLoadTask(context, uri, outputUri, requiredWidth, requiredHeight, previewQuality, loadCallback);
+        task.start(TaskExecutors.PRIORITY_INTERACTIVE);
+        return task;
     }
 
+    /**
+     * Draws the bitmap transformed with the matrix into a new one, target bitmap is taken from
+     * {@link BitmapPool} if possible. Source bitmap stays owned by the caller.
+     */
     public static Bitmap transformBitmap(@NonNull Bitmap bitmap, @NonNull Matrix transformMatrix) {
         try {
-            Bitmap converted = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), transformMatrix, true);
-            if (!bitmap.sameAs(converted)) {
-                bitmap = converted;
+            RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            transformMatrix.mapRect(bounds);
+            int width = Math.round(bounds.width());
+            int height = Math.round(bounds.height());
+            Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+
+            Bitmap converted = BitmapPool.getInstance().get(width, height, config);
+            if (converted != null) {
+                converted.eraseColor(Color.TRANSPARENT);
+            } else {
+                converted = Bitmap.createBitmap(width, height, config);
             }
+
+            Canvas canvas = new Canvas(converted);
+            canvas.translate(-bounds.left, -bounds.top);
+            canvas.concat(transformMatrix);
+            canvas.drawBitmap(bitmap, 0, 0, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+            bitmap = converted;
         } catch (OutOfMemoryError error) {
             Log.e(TAG, "transformBitmap: ", error);
         }
@@ -65,6 +118,112 @@ public class BitmapLoadUtils {
         return inSampleSize;
     }
 
+    /**
+     * Plans decoding so that the bitmap fits both the required size and the memory budget
+     * (see {@link #getDecodeMemoryBudget(Context)}) right away, without OOM-and-retry.
+     * Power of two part of the downscale is done by the decoder with inSampleSize, the rest is
+     * set with inDensity / inTargetDensity, so the bitmap lands close to the required size.
+     *
+     * @param width  - source image width
+     * @param height - source image height
+     */
+    public static void planDecode(@NonNull Context context, @NonNull BitmapFactory.Options options,
+                                  int width, int height, int reqWidth, int reqHeight) {
+        planDecode(options, width, height, reqWidth, reqHeight, getDecodeMemoryBudget(context));
+    }
+
+    /**
+     * Same as {@link #planDecode(Context, BitmapFactory.Options, int, int, int, int)} with the given budget.
+     *
+     * @param budget - max bytes the decode may allocate
+     */
+    public static void planDecode(@NonNull BitmapFactory.Options options,
+                                  int width, int height, int reqWidth, int reqHeight, long budget) {
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        int bytesPerPixel = getBytesPerPixel(config);
+
+        float scale = Math.min(1f, Math.min(reqWidth / (float) width, reqHeight / (float) height));
+        int sampleSize, sampledWidth, sampledHeight, targetWidth, targetHeight;
+        while (true) {
+            sampleSize = 1;
+            while (sampleSize * 2 * scale <= 1f) {
+                sampleSize *= 2;
+            }
+            sampledWidth = (int) Math.ceil(width / (float) sampleSize);
+            sampledHeight = (int) Math.ceil(height / (float) sampleSize);
+            targetWidth = Math.max(1, Math.round(width * scale));
+            targetHeight = Math.max(1, Math.round(height * scale));
+
+            // While decoder scales, sampled bitmap and the scaled one are both allocated
+            long bytes = (long) targetWidth * targetHeight * bytesPerPixel;
+            if (targetWidth < sampledWidth) {
+                bytes += (long) sampledWidth * sampledHeight * bytesPerPixel;
+            }
+            if (bytes <= budget || targetWidth == 1 || targetHeight == 1) {
+                break;
+            }
+            // Just over the budget the square root is ~1 and rounding would keep the same size forever
+            scale *= Math.min(Math.sqrt(budget / (double) bytes), MAX_DECODE_SCALE_STEP);
+        }
+
+        options.inSampleSize = sampleSize;
+        if (targetWidth < sampledWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        } else {
+            options.inScaled = false;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+    }
+
+    /**
+     * Memory that a single decoded bitmap may take: a part of the app memory class, and
+     * below Oreo (where pixels live on the Java heap) also a part of the currently free heap.
+     */
+    public static long getDecodeMemoryBudget(@NonNull Context context) {
+        Runtime runtime = Runtime.getRuntime();
+        long memory = runtime.maxMemory();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            memory = Math.min(memory, activityManager.getMemoryClass() * 1024L * 1024L);
+        }
+
+        long budget = memory / DECODE_MEMORY_BUDGET_DIVIDER;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            budget = Math.min(budget, freeHeap / FREE_HEAP_BUDGET_DIVIDER);
+        }
+        return budget;
+    }
+
+    /**
+     * @return - size of the bitmap that will be decoded with options planned by
+     * {@link #planDecode(Context, BitmapFactory.Options, int, int, int, int)}
+     */
+    public static Point getDecodedSize(@NonNull BitmapFactory.Options options, int width, int height) {
+        int sampledWidth = (int) Math.ceil(width / (float) options.inSampleSize);
+        int sampledHeight = (int) Math.ceil(height / (float) options.inSampleSize);
+        if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+            float scale = options.inTargetDensity / (float) options.inDensity;
+            return new Point(Math.round(sampledWidth * scale), Math.round(sampledHeight * scale));
+        }
+        return new Point(sampledWidth, sampledHeight);
+    }
+
+    public static int getBytesPerPixel(@NonNull Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
     public static int getExifOrientation(@NonNull Context context, @NonNull Uri imageUri) {
         int orientation = ExifInterface.ORIENTATION_UNDEFINED;
         try {
@@ -80,6 +239,45 @@ public class BitmapLoadUtils {
         return orientation;
     }
 
+    /**
+     * Probes image header for dimensions, MIME type, exif orientation and thumbnail location
+     * with a single read of the first few KB of the image.
+     *
+     * @return - parsed image info, values that could not be parsed are left unknown
+     */
+    @NonNull
+    public static ImageInfo getImageInfo(@NonNull Context context, @NonNull Uri imageUri) {
+        // File backed Uris are memory-mapped, so the parser seeks over large APPn segments
+        FileInputStream inputStream = null;
+        try {
+            ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(imageUri, "r");
+            if (parcelFileDescriptor != null) {
+                inputStream = new ParcelFileDescriptor.AutoCloseInputStream(parcelFileDescriptor);
+                FileChannel channel = inputStream.getChannel();
+                if (channel.size() > 0) {
+                    return new ImageHeaderParser(channel).getImageInfo();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "getImageInfo: unable to map " + imageUri.toString() + ", reading stream instead", e);
+        } finally {
+            close(inputStream);
+        }
+
+        InputStream stream = null;
+        try {
+            stream = context.getContentResolver().openInputStream(imageUri);
+            if (stream != null) {
+                return new ImageHeaderParser(new BufferedInputStream(stream, HEADER_BUFFER_SIZE)).getImageInfo();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "getImageInfo: " + imageUri.toString(), e);
+        } finally {
+            close(stream);
+        }
+        return new ImageInfo();
+    }
+
     public static int exifToDegrees(int exifOrientation) {
         int rotation;
         switch (exifOrientation) {
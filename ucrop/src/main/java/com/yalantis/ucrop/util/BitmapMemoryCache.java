@@ -0,0 +1,270 @@
+package com.yalantis.ucrop.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.task.TaskExecutors;
+import com.yalantis.ucrop.task.TaskFuture;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide cache of decoded images, so opening the same image again (after a cancelled crop
+ * or in a multi-image flow) shows it right away without download, copy and decode.
+ * <p/>
+ * Entries are keyed by source Uri, its size and modification time (where known) and the requested
+ * bitmap size. Each entry also remembers the local file the bitmap was decoded from and is dropped
+ * once that file is gone or changed, e.g. overwritten by a crop result.
+ * Cached bitmaps may be shown by several views, so they are returned to {@link BitmapPool} only
+ * once they are evicted and no view references them, see {@link #acquire(Bitmap)}.
+ */
+public class BitmapMemoryCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "BitmapMemoryCache";
+
+    private static final int MAX_SIZE_HEAP_DIVIDER = 8;
+
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
+    private static final String COLUMN_DATE_MODIFIED = "date_modified";
+
+    private static BitmapMemoryCache sInstance;
+
+    private final LruCache<String, Entry> mCache;
+    // Weak keys, so a reference that is never released doesn't keep the bitmap alive
+    private final Map<Bitmap, Integer> mReferenceCounts = new WeakHashMap<>();
+
+    public static class Entry {
+
+        private final Bitmap mBitmap;
+        private final ExifInfo mExifInfo;
+        private final ImageInfo mImageInfo;
+        private final String mImageInputPath;
+        private final long mInputLength;
+        private final long mInputLastModified;
+
+        Entry(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull ImageInfo imageInfo, @NonNull String imageInputPath) {
+            mBitmap = bitmap;
+            mExifInfo = exifInfo;
+            mImageInfo = imageInfo;
+            mImageInputPath = imageInputPath;
+
+            File inputFile = new File(imageInputPath);
+            mInputLength = inputFile.length();
+            mInputLastModified = inputFile.lastModified();
+        }
+
+        @NonNull
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        @NonNull
+        public ExifInfo getExifInfo() {
+            return mExifInfo;
+        }
+
+        @NonNull
+        public ImageInfo getImageInfo() {
+            return mImageInfo;
+        }
+
+        @NonNull
+        public String getImageInputPath() {
+            return mImageInputPath;
+        }
+
+        /**
+         * @return - true if the file bitmap was decoded from is still there and unchanged
+         */
+        boolean isValid() {
+            File inputFile = new File(mImageInputPath);
+            return !mBitmap.isRecycled() && inputFile.exists()
+                    && inputFile.length() == mInputLength && inputFile.lastModified() == mInputLastModified;
+        }
+
+    }
+
+    @NonNull
+    public static synchronized BitmapMemoryCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new BitmapMemoryCache((int) (Runtime.getRuntime().maxMemory() / MAX_SIZE_HEAP_DIVIDER));
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    BitmapMemoryCache(int maxSize) {
+        mCache = new LruCache<String, Entry>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.getBitmap().getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                release(oldValue.getBitmap());
+            }
+        };
+    }
+
+    /**
+     * Queries the content provider or stats the file, so it must not be called on the main thread,
+     * see {@link #createKeyAsync(Context, Uri, int, int, int)}.
+     *
+     * @return - key for the image at the given Uri decoded to fit the given size, see {@link #get(String)}
+     */
+    @NonNull
+    public static String createKey(@NonNull Context context, @NonNull Uri uri, int maxBitmapSize, int previewQuality) {
+        return uri.toString() + '|' + getSourceIdentity(context, uri) + '|' + maxBitmapSize + '|' + previewQuality;
+    }
+
+    /**
+     * Builds the key with {@link #createKey(Context, Uri, int, int)} on the I/O pool.
+     */
+    @NonNull
+    public static TaskFuture<String> createKeyAsync(@NonNull Context context, @NonNull final Uri uri,
+                                                    final int maxBitmapSize, final int previewQuality,
+                                                    @TaskExecutors.Priority int priority) {
+        final Context appContext = context.getApplicationContext();
+        TaskFuture<String> future = new TaskFuture<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return createKey(appContext, uri, maxBitmapSize, previewQuality);
+            }
+        });
+        TaskExecutors.getIoExecutor(priority).execute(future);
+        return future;
+    }
+
+    @Nullable
+    public synchronized Entry get(@NonNull String key) {
+        Entry entry = mCache.get(key);
+        if (entry != null && !entry.isValid()) {
+            mCache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized void put(@NonNull String key, @NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo,
+                                 @NonNull ImageInfo imageInfo, @NonNull String imageInputPath) {
+        if (bitmap.getByteCount() > mCache.maxSize()) {
+            // It would be evicted, and pooled, right away
+            return;
+        }
+        acquire(bitmap);
+        mCache.put(key, new Entry(bitmap, exifInfo, imageInfo, imageInputPath));
+    }
+
+    /**
+     * Takes a reference to the bitmap, e.g. when it is shown by a view, so it is not pooled when
+     * it is evicted from the cache. Each call must be paired with {@link #release(Bitmap)}.
+     */
+    public synchronized void acquire(@NonNull Bitmap bitmap) {
+        Integer count = mReferenceCounts.get(bitmap);
+        mReferenceCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Drops a reference taken with {@link #acquire(Bitmap)}. Once the bitmap is neither cached nor
+     * referenced, it is returned to {@link BitmapPool}. A bitmap that was never acquired (e.g. a preview)
+     * is pooled right away.
+     */
+    public synchronized void release(@Nullable Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        Integer count = mReferenceCounts.get(bitmap);
+        if (count != null && count > 1) {
+            mReferenceCounts.put(bitmap, count - 1);
+            return;
+        }
+        mReferenceCounts.remove(bitmap);
+        BitmapPool.getInstance().put(bitmap);
+    }
+
+    /**
+     * @return - true if the bitmap is currently cached or referenced by a view,
+     * such bitmap must not be reused or recycled
+     */
+    public synchronized boolean isShared(@Nullable Bitmap bitmap) {
+        return bitmap != null && mReferenceCounts.containsKey(bitmap);
+    }
+
+    public synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND
+                || (level >= TRIM_MEMORY_RUNNING_LOW && level < TRIM_MEMORY_UI_HIDDEN)) {
+            Log.d(TAG, "onTrimMemory: " + level);
+            clear();
+            BitmapPool.getInstance().clear();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // Pooled bitmaps are only useful while an image is being shown
+            BitmapPool.getInstance().clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+        BitmapPool.getInstance().clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * @return - size and modification time of the source if those are known, so a changed source
+     * is not served from the cache
+     */
+    @NonNull
+    private static String getSourceIdentity(@NonNull Context context, @NonNull Uri uri) {
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            return file.length() + ":" + file.lastModified();
+        } else if ("content".equals(uri.getScheme())) {
+            Cursor cursor = null;
+            try {
+                cursor = context.getContentResolver().query(uri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    return getColumn(cursor, OpenableColumns.SIZE) + ":"
+                            + getColumn(cursor, COLUMN_LAST_MODIFIED) + ":" + getColumn(cursor, COLUMN_DATE_MODIFIED);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "getSourceIdentity: " + e.getMessage());
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        // Remote files are validated by the downloaded file only
+        return "";
+    }
+
+    @Nullable
+    private static String getColumn(@NonNull Cursor cursor, @NonNull String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 ? cursor.getString(index) : null;
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.yalantis.ucrop.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Pool of mutable bitmaps that can be reused with {@link android.graphics.BitmapFactory.Options#inBitmap}
+ * instead of allocating a new large bitmap for each decoded image.
+ * <p/>
+ * Bitmaps are bucketed by allocation size. Any bitmap that is large enough can be reconfigured
+ * to the requested size (KitKat and above), so the pool is not used on older devices.
+ * Total size is capped by a fraction of the heap, the largest bitmaps are evicted first.
+ */
+public class BitmapPool {
+
+    private static final String TAG = "BitmapPool";
+
+    private static final int MAX_SIZE_HEAP_DIVIDER = 8;
+    // Don't reuse a much larger allocation for a small bitmap, it would keep memory busy for nothing
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static BitmapPool sInstance;
+
+    private final SizeBucketPool<Bitmap> mBuckets;
+
+    @NonNull
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / MAX_SIZE_HEAP_DIVIDER);
+        }
+        return sInstance;
+    }
+
+    BitmapPool(long maxSize) {
+        mBuckets = new SizeBucketPool<Bitmap>(maxSize, MAX_SIZE_MULTIPLE) {
+            @Override
+            void onEvicted(@NonNull Bitmap bitmap) {
+                bitmap.recycle();
+            }
+        };
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * @return - bitmap reconfigured to the given size and config or null if pool has no suitable one.
+     * Its pixels are not cleared.
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        if (!isSupported() || width <= 0 || height <= 0) {
+            return null;
+        }
+
+        Bitmap bitmap = mBuckets.get(width * height * BitmapLoadUtils.getBytesPerPixel(config));
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            bitmap.reconfigure(width, height, config);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "get: unable to reconfigure bitmap", e);
+            return null;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns bitmap to the pool. Bitmap must not be drawn or referenced anywhere after that.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void put(@Nullable Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        mBuckets.put(bitmap, bitmap.getAllocationByteCount());
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.yalantis.ucrop.util;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Crop size and offset calculations of {@link com.yalantis.ucrop.UCropEngine}.
+ * Sizes are passed as plain numbers, so they can be checked without an Android runtime.
+ */
+public class CropGeometryUtils {
+
+    private CropGeometryUtils() {
+    }
+
+    /**
+     * @return - scale that fits the crop into max output size, 1 if it fits already or max size is not set
+     */
+    public static float getResizeScale(float cropWidth, float cropHeight, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            return 1;
+        }
+        if (cropWidth <= maxWidth && cropHeight <= maxHeight) {
+            return 1;
+        }
+        return Math.min(maxWidth / cropWidth, maxHeight / cropHeight);
+    }
+
+    /**
+     * @return - offsets and size of the crop in the source scaled by resize scale:
+     * {offsetX, offsetY, width, height}
+     */
+    @NonNull
+    public static int[] getScaledCropBounds(float left, float top, float width, float height, float resizeScale) {
+        return new int[]{
+                Math.round(left * resizeScale),
+                Math.round(top * resizeScale),
+                Math.round(width * resizeScale),
+                Math.round(height * resizeScale)
+        };
+    }
+
+    /**
+     * Size of the bounding box the crop rect of {@link com.yalantis.ucrop.model.CropSpec} is given in.
+     *
+     * @param imageWidth  - source width as stored, before exif orientation is applied
+     * @param imageHeight - source height as stored, before exif orientation is applied
+     * @param exifDegrees - see {@link BitmapLoadUtils#exifToDegrees(int)}
+     * @param angle       - rotation in degrees applied after exif orientation
+     * @return - {width, height}
+     */
+    @NonNull
+    public static float[] getRotatedImageSize(int imageWidth, int imageHeight, int exifDegrees, float angle) {
+        boolean sidesSwapped = exifDegrees % 180 != 0;
+        float width = sidesSwapped ? imageHeight : imageWidth;
+        float height = sidesSwapped ? imageWidth : imageHeight;
+
+        double radians = Math.toRadians(angle);
+        float cos = (float) Math.abs(Math.cos(radians));
+        float sin = (float) Math.abs(Math.sin(radians));
+        return new float[]{width * cos + height * sin, width * sin + height * cos};
+    }
+
+    /**
+     * For each 1000 pixels there is one pixel of error allowed, same as the crop view does.
+     *
+     * @param imageSize - see {@link #getRotatedImageSize(int, int, int, float)}
+     * @return - true if the crop rect lies within the image
+     */
+    public static boolean isCropWithinImage(float left, float top, float right, float bottom, @NonNull float[] imageSize) {
+        float pixelError = 1 + Math.round(Math.max(imageSize[0], imageSize[1]) / 1000f);
+        return left >= -pixelError && top >= -pixelError
+                && right <= imageSize[0] + pixelError && bottom <= imageSize[1] + pixelError;
+    }
+
+}
@@ -18,27 +18,55 @@ package com.yalantis.ucrop.util;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.support.annotation.Nullable;
 
+import com.yalantis.ucrop.model.ExifInfo;
+
+/**
+ * Draws a bitmap with its exif orientation applied at draw time, so a rotated or flipped image
+ * doesn't need a transformed copy of the bitmap. Intrinsic size is the size of the oriented image.
+ */
 public class FastBitmapDrawable extends Drawable {
 
     private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix mOrientationMatrix = new Matrix();
+    private final RectF mTempRect = new RectF();
 
     private Bitmap mBitmap;
+    private ExifInfo mExifInfo;
     private int mAlpha;
     private int mWidth, mHeight;
 
     public FastBitmapDrawable(Bitmap b) {
+        this(b, null);
+    }
+
+    public FastBitmapDrawable(Bitmap b, @Nullable ExifInfo exifInfo) {
         mAlpha = 255;
+        mExifInfo = exifInfo;
         setBitmap(b);
     }
 
     @Override
     public void draw(Canvas canvas) {
         if (mBitmap != null && !mBitmap.isRecycled()) {
-            canvas.drawBitmap(mBitmap, null, getBounds(), mPaint);
+            if (mOrientationMatrix.isIdentity()) {
+                canvas.drawBitmap(mBitmap, null, getBounds(), mPaint);
+            } else {
+                Rect bounds = getBounds();
+                int saveCount = canvas.save();
+                canvas.translate(bounds.left, bounds.top);
+                canvas.scale(bounds.width() / (float) mWidth, bounds.height() / (float) mHeight);
+                canvas.concat(mOrientationMatrix);
+                canvas.drawBitmap(mBitmap, 0, 0, mPaint);
+                canvas.restoreToCount(saveCount);
+            }
         }
     }
 
@@ -90,14 +118,45 @@ public class FastBitmapDrawable extends Drawable {
         return mBitmap;
     }
 
+    @Nullable
+    public ExifInfo getExifInfo() {
+        return mExifInfo;
+    }
+
     public void setBitmap(Bitmap b) {
         mBitmap = b;
+        mOrientationMatrix.reset();
         if (b != null) {
             mWidth = mBitmap.getWidth();
             mHeight = mBitmap.getHeight();
+            if (mExifInfo != null) {
+                setupOrientationMatrix(mExifInfo);
+            }
         } else {
             mWidth = mHeight = 0;
         }
     }
 
+    /**
+     * Same transformation that was applied to decoded bitmaps before: rotation, then horizontal flip.
+     * Result is moved back to the origin and intrinsic size becomes the oriented one.
+     */
+    private void setupOrientationMatrix(ExifInfo exifInfo) {
+        if (exifInfo.getExifDegrees() != 0) {
+            mOrientationMatrix.preRotate(exifInfo.getExifDegrees());
+        }
+        if (exifInfo.getExifTranslation() != 1) {
+            mOrientationMatrix.postScale(exifInfo.getExifTranslation(), 1);
+        }
+        if (mOrientationMatrix.isIdentity()) {
+            return;
+        }
+
+        mTempRect.set(0, 0, mWidth, mHeight);
+        mOrientationMatrix.mapRect(mTempRect);
+        mOrientationMatrix.postTranslate(-mTempRect.left, -mTempRect.top);
+        mWidth = Math.round(mTempRect.width());
+        mHeight = Math.round(mTempRect.height());
+    }
+
 }
@@ -17,6 +17,7 @@
 package com.yalantis.ucrop.util;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
@@ -26,6 +27,9 @@ import android.os.Environment;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -33,8 +37,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Locale;
+import java.util.Queue;
 
 /**
  * @author Peli
@@ -48,6 +57,11 @@ public class FileUtils {
      */
     private static final String TAG = "FileUtils";
 
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    private static final int COPY_BUFFER_POOL_SIZE = 2;
+
+    private static final Queue<ByteBuffer> sCopyBufferPool = new ArrayDeque<>(COPY_BUFFER_POOL_SIZE);
+
     private FileUtils() {
     }
 
@@ -213,10 +227,14 @@ public class FileUtils {
      * Copies one file into the other with the given paths.
      * In the event that the paths are the same, trying to copy one file to the other
      * will cause both files to become null.
-     * Simply skipping this step if the paths are identical.
+     * Simply skipping this step if the paths point to the same file (see {@link #isSameFile(String, String)}).
+     * <p/>
+     * Hard links are not used on purpose: destination is overwritten in place by a later crop,
+     * which would destroy the source file sharing the same inode.
      */
     public static void copyFile(@NonNull String pathFrom, @NonNull String pathTo) throws IOException {
-        if (pathFrom.equalsIgnoreCase(pathTo)) {
+        if (isSameFile(pathFrom, pathTo)) {
+            Log.d(TAG, "copyFile: destination already holds the source file");
             return;
         }
 
@@ -225,7 +243,7 @@ public class FileUtils {
         try {
             inputChannel = new FileInputStream(new File(pathFrom)).getChannel();
             outputChannel = new FileOutputStream(new File(pathTo)).getChannel();
-            inputChannel.transferTo(0, inputChannel.size(), outputChannel);
+            copyChannel(inputChannel, outputChannel);
             inputChannel.close();
         } finally {
             if (inputChannel != null) inputChannel.close();
@@ -233,4 +251,157 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Moves a file that is owned by the library (e.g. a finished download) to the destination path.
+     * Rename costs O(1) when both paths are on the same filesystem, otherwise file is copied
+     * and the source removed.
+     */
+    public static void moveFile(@NonNull String pathFrom, @NonNull String pathTo) throws IOException {
+        if (isSameFile(pathFrom, pathTo)) {
+            return;
+        }
+
+        File source = new File(pathFrom);
+        File destination = new File(pathTo);
+        if (!destination.delete() && destination.exists()) {
+            Log.w(TAG, "moveFile: unable to delete " + destination);
+        }
+        if (!source.renameTo(destination)) {
+            copyFile(pathFrom, pathTo);
+            if (!source.delete()) {
+                Log.w(TAG, "moveFile: unable to delete " + source);
+            }
+        }
+    }
+
+    /**
+     * Checks whether both paths point to the same file. Paths are compared as given
+     * (case insensitive, as external storage is), then canonical paths are compared to resolve
+     * symlinks and finally device and inode numbers are compared on Lollipop and above.
+     */
+    public static boolean isSameFile(@NonNull String pathA, @NonNull String pathB) {
+        if (pathA.equalsIgnoreCase(pathB)) {
+            return true;
+        }
+
+        File fileA = new File(pathA);
+        File fileB = new File(pathB);
+        if (!fileA.exists() || !fileB.exists()) {
+            return false;
+        }
+
+        try {
+            if (fileA.getCanonicalPath().equals(fileB.getCanonicalPath())) {
+                return true;
+            }
+        } catch (IOException e) {
+            Log.i(TAG, "isSameFile: " + e.getMessage());
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return isSameInode(pathA, pathB);
+        }
+        return false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean isSameInode(@NonNull String pathA, @NonNull String pathB) {
+        try {
+            StructStat statA = Os.stat(pathA);
+            StructStat statB = Os.stat(pathB);
+            return statA.st_dev == statB.st_dev && statA.st_ino == statB.st_ino;
+        } catch (ErrnoException e) {
+            Log.i(TAG, "isSameInode: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Copies everything that is left in the input channel to the output channel.
+     * When input is a regular file {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * is used, so bytes are moved by the kernel (sendfile) without passing through the Java heap.
+     * Pipes and sockets (e.g. content providers that stream their data) report zero size,
+     * those are copied through a pooled direct buffer.
+     *
+     * @return - number of bytes copied
+     */
+    public static long copyChannel(@NonNull FileChannel inputChannel, @NonNull FileChannel outputChannel) throws IOException {
+        long size = 0;
+        try {
+            size = inputChannel.size();
+        } catch (IOException e) {
+            Log.i(TAG, "copyChannel: size is unknown - " + e.getMessage());
+        }
+
+        long copied = 0;
+        if (size > 0) {
+            long position = inputChannel.position();
+            long transferred;
+            while (position < size) {
+                transferred = inputChannel.transferTo(position, size - position, outputChannel);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                copied += transferred;
+            }
+            inputChannel.position(position);
+            if (position >= size) {
+                return copied;
+            }
+        }
+
+        ByteBuffer buffer = obtainCopyBuffer();
+        try {
+            while (inputChannel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    copied += outputChannel.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            recycleCopyBuffer(buffer);
+        }
+        return copied;
+    }
+
+    @NonNull
+    private static ByteBuffer obtainCopyBuffer() {
+        synchronized (sCopyBufferPool) {
+            ByteBuffer buffer = sCopyBufferPool.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+    }
+
+    private static void recycleCopyBuffer(@NonNull ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (sCopyBufferPool) {
+            if (sCopyBufferPool.size() < COPY_BUFFER_POOL_SIZE) {
+                sCopyBufferPool.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return - hex MD5 of the value, used to name cache files after urls and keys
+     */
+    @NonNull
+    public static String md5(@NonNull String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(value.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format(Locale.US, "%02x", b & 0xFF));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(value.hashCode());
+        }
+    }
+
 }
@@ -34,14 +34,25 @@ import android.media.ExifInterface;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.yalantis.ucrop.model.ImageInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
 /**
  * A class for parsing the exif orientation from an image header.
+ * Files should be parsed with {@link #ImageHeaderParser(FileChannel)}, which walks segments of
+ * a memory-mapped file with absolute reads instead of reading the stream byte by byte.
+ * {@link #getImageInfo()} collects dimensions, MIME type, exif orientation and embedded thumbnail
+ * location in a single pass over the header. Dimensions are also parsed for PNG, GIF, WebP and HEIF,
+ * so {@link android.graphics.BitmapFactory} is asked for bounds only for unknown formats.
  */
 public class ImageHeaderParser {
     private static final String TAG = "ImageHeaderParser";
@@ -52,7 +63,43 @@ public class ImageHeaderParser {
      */
     public static final int UNKNOWN_ORIENTATION = -1;
 
+    public static final String MIME_TYPE_JPEG = "image/jpeg";
+    public static final String MIME_TYPE_PNG = "image/png";
+    public static final String MIME_TYPE_GIF = "image/gif";
+    public static final String MIME_TYPE_WEBP = "image/webp";
+    public static final String MIME_TYPE_HEIF = "image/heif";
+    public static final String MIME_TYPE_HEIC = "image/heic";
+
     private static final int EXIF_MAGIC_NUMBER = 0xFFD8;
+    // "\x89P".
+    private static final int PNG_MAGIC_NUMBER = 0x8950;
+    // "GI".
+    private static final int GIF_MAGIC_NUMBER = 0x4749;
+    // "RI" of "RIFF".
+    private static final int RIFF_MAGIC_NUMBER_START = 0x5249;
+    // "WE" and "BP" of "WEBP".
+    private static final int WEBP_MAGIC_NUMBER_START = 0x5745;
+    private static final int WEBP_MAGIC_NUMBER_END = 0x4250;
+    // High bytes of the ftyp box size, it is never larger than 64K.
+    private static final int HEIF_MAGIC_NUMBER_START = 0x0000;
+    // "IHDR".
+    private static final long PNG_IHDR_CHUNK = 0x49484452L;
+    // "VP8 ", "VP8L" and "VP8X".
+    private static final long WEBP_VP8_CHUNK = 0x56503820L;
+    private static final long WEBP_VP8L_CHUNK = 0x5650384CL;
+    private static final long WEBP_VP8X_CHUNK = 0x56503858L;
+    private static final int WEBP_VP8_START_CODE = 0x9D012A;
+    private static final int WEBP_VP8L_SIGNATURE = 0x2F;
+    // "ftyp", "meta", "iprp", "ipco", "ispe" and "irot".
+    private static final long HEIF_FTYP_BOX = 0x66747970L;
+    private static final long HEIF_META_BOX = 0x6D657461L;
+    private static final long HEIF_IPRP_BOX = 0x69707270L;
+    private static final long HEIF_IPCO_BOX = 0x6970636FL;
+    private static final long HEIF_ISPE_BOX = 0x69737065L;
+    private static final long HEIF_IROT_BOX = 0x69726F74L;
+    // "heic", "heix", "hevc", "hevx", "mif1" and "msf1".
+    private static final long[] HEIC_BRANDS = {0x68656963L, 0x68656978L, 0x68657663L, 0x68657678L};
+    private static final long[] HEIF_BRANDS = {0x6D696631L, 0x6D736631L};
     // "MM".
     private static final int MOTOROLA_TIFF_MAGIC_NUMBER = 0x4D4D;
     // "II".
@@ -63,8 +110,27 @@ public class ImageHeaderParser {
     private static final int SEGMENT_SOS = 0xDA;
     private static final int MARKER_EOI = 0xD9;
     private static final int SEGMENT_START_ID = 0xFF;
+    private static final int APP0_SEGMENT_TYPE = 0xE0;
     private static final int EXIF_SEGMENT_TYPE = 0xE1;
+    private static final int SEGMENT_SOF0 = 0xC0;
+    private static final int SEGMENT_SOF15 = 0xCF;
+    private static final int SEGMENT_DHT = 0xC4;
+    private static final int SEGMENT_JPG = 0xC8;
+    private static final int SEGMENT_DAC = 0xCC;
+    // SOF2, SOF6, SOF10 and SOF14 describe progressive frames.
+    private static final int PROGRESSIVE_SOF_MASK = 0x03;
+    private static final int PROGRESSIVE_SOF_BITS = 0x02;
     private static final int ORIENTATION_TAG_TYPE = 0x0112;
+    private static final int IMAGE_WIDTH_TAG_TYPE = 0x0100;
+    private static final int IMAGE_LENGTH_TAG_TYPE = 0x0101;
+    private static final int EXIF_IFD_POINTER_TAG_TYPE = 0x8769;
+    private static final int PIXEL_X_DIMENSION_TAG_TYPE = 0xA002;
+    private static final int PIXEL_Y_DIMENSION_TAG_TYPE = 0xA003;
+    private static final int FORMAT_UNSIGNED_SHORT = 3;
+    private static final int FORMAT_UNSIGNED_LONG = 4;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+    private static final int THUMBNAIL_OFFSET_TAG_TYPE = 0x0201;
+    private static final int THUMBNAIL_LENGTH_TAG_TYPE = 0x0202;
     private static final int[] BYTES_PER_FORMAT = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
 
     private final Reader reader;
@@ -73,6 +139,24 @@ public class ImageHeaderParser {
         reader = new StreamReader(is);
     }
 
+    /**
+     * Parser over an in-memory image, segments are skipped by moving buffer position and exif
+     * segment is parsed in place without copying.
+     */
+    public ImageHeaderParser(ByteBuffer buffer) {
+        reader = new ByteBufferReader(buffer);
+    }
+
+    /**
+     * Maps the whole file read-only, so only the pages that are actually touched by the parser are
+     * read from disk. Channel can be closed once the parser is created.
+     *
+     * @throws IOException if the channel can't be mapped (pipes, sockets)
+     */
+    public ImageHeaderParser(FileChannel channel) throws IOException {
+        this(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
     /**
      * Parse the orientation from the image header. If it doesn't handle this image type (or this is
      * not an image) it will return a default value rather than throwing an exception.
@@ -98,25 +182,383 @@ public class ImageHeaderParser {
                 return UNKNOWN_ORIENTATION;
             }
 
-            byte[] exifData = new byte[exifSegmentLength];
-            return parseExifSegment(exifData, exifSegmentLength);
+            return parseExifSegment(exifSegmentLength);
+        }
+    }
+
+    /**
+     * Reads raw exif segment of a JPEG image, starting with the "Exif\0\0" preamble.
+     * Used to carry all the tags of the source image over to the cropped one,
+     * see {@link #copyExif(byte[], int, int, String)}.
+     *
+     * @return exif segment data or null if image has no exif segment
+     * @throws IOException
+     */
+    public byte[] getExifSegment() throws IOException {
+        if (reader.getUInt16() != EXIF_MAGIC_NUMBER) {
+            return null;
+        }
+
+        int exifSegmentLength = moveToExifSegmentAndGetLength();
+        if (exifSegmentLength <= 0) {
+            return null;
+        }
+
+        byte[] exifData = new byte[exifSegmentLength];
+        if (reader.read(exifData, exifSegmentLength) != exifSegmentLength
+                || !hasJpegExifPreamble(new RandomAccessReader(exifData, exifSegmentLength))) {
+            return null;
+        }
+        return exifData;
+    }
+
+    /**
+     * Reads image dimensions, MIME type, exif orientation and embedded thumbnail location from
+     * the image header. Only the first segments of the file are read, so it is much cheaper than
+     * decoding bounds with {@link android.graphics.BitmapFactory} and parsing exif separately.
+     *
+     * @return ImageInfo with all the values that could be parsed, unknown values are left as -1
+     * @throws IOException
+     */
+    public ImageInfo getImageInfo() throws IOException {
+        ImageInfo imageInfo = new ImageInfo();
+
+        final int magicNumber = reader.getUInt16();
+        if (magicNumber == EXIF_MAGIC_NUMBER) {
+            imageInfo.setMimeType(MIME_TYPE_JPEG);
+            parseJpegSegments(imageInfo);
+        } else if (magicNumber == PNG_MAGIC_NUMBER) {
+            imageInfo.setMimeType(MIME_TYPE_PNG);
+            parsePngHeader(imageInfo);
+        } else if (magicNumber == GIF_MAGIC_NUMBER) {
+            imageInfo.setMimeType(MIME_TYPE_GIF);
+            parseGifHeader(imageInfo);
+        } else if (magicNumber == RIFF_MAGIC_NUMBER_START) {
+            // Skip the rest of "RIFF" and the chunk size
+            reader.skip(6);
+            if (reader.getUInt16() == WEBP_MAGIC_NUMBER_START && reader.getUInt16() == WEBP_MAGIC_NUMBER_END) {
+                imageInfo.setMimeType(MIME_TYPE_WEBP);
+                parseWebpHeader(imageInfo);
+            }
+        } else if (magicNumber == HEIF_MAGIC_NUMBER_START) {
+            parseHeifHeader(imageInfo);
+        } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Parser doesn't handle magic number: " + magicNumber);
+        }
+        return imageInfo;
+    }
+
+    /**
+     * IHDR is always the first chunk, right after the 8 byte signature.
+     */
+    private void parsePngHeader(ImageInfo imageInfo) throws IOException {
+        // Skip the rest of the signature and IHDR chunk length
+        reader.skip(10);
+        if (getUInt32() != PNG_IHDR_CHUNK) {
+            return;
+        }
+
+        long width = getUInt32();
+        long height = getUInt32();
+        setSize(imageInfo, width, height);
+    }
+
+    /**
+     * Logical screen size follows the "GIF87a" or "GIF89a" signature.
+     */
+    private void parseGifHeader(ImageInfo imageInfo) throws IOException {
+        reader.skip(4);
+        int width = getUInt16LittleEndian();
+        int height = getUInt16LittleEndian();
+        setSize(imageInfo, width, height);
+    }
+
+    /**
+     * First chunk of a WebP file describes either a lossy (VP8), a lossless (VP8L)
+     * or an extended (VP8X) image, each of them stores canvas size differently.
+     */
+    private void parseWebpHeader(ImageInfo imageInfo) throws IOException {
+        long chunkType = getUInt32();
+        // Chunk size
+        reader.skip(4);
+
+        if (chunkType == WEBP_VP8_CHUNK) {
+            // Frame tag, then start code
+            reader.skip(3);
+            int startCode = reader.getUInt8() << 16 | reader.getUInt16();
+            if (startCode != WEBP_VP8_START_CODE) {
+                return;
+            }
+            int width = getUInt16LittleEndian() & 0x3FFF;
+            int height = getUInt16LittleEndian() & 0x3FFF;
+            setSize(imageInfo, width, height);
+        } else if (chunkType == WEBP_VP8L_CHUNK) {
+            if (reader.getUInt8() != WEBP_VP8L_SIGNATURE) {
+                return;
+            }
+            int bits = getUInt16LittleEndian() | getUInt16LittleEndian() << 16;
+            setSize(imageInfo, (bits & 0x3FFF) + 1, (bits >> 14 & 0x3FFF) + 1);
+        } else if (chunkType == WEBP_VP8X_CHUNK) {
+            // Flags and reserved bytes
+            reader.skip(4);
+            int width = getUInt24LittleEndian() + 1;
+            int height = getUInt24LittleEndian() + 1;
+            setSize(imageInfo, width, height);
+        }
+    }
+
+    /**
+     * HEIF stores image size in the ispe property, it is found in meta/iprp/ipco boxes.
+     * Property container also holds the ispe of tiles and thumbnails, primary image is the largest one.
+     * Size is left unknown when image is rotated by 90 or 270 degrees with irot property.
+     */
+    private void parseHeifHeader(ImageInfo imageInfo) throws IOException {
+        long ftypSize = reader.getUInt16();
+        if (getUInt32() != HEIF_FTYP_BOX || ftypSize < 16) {
+            return;
+        }
+
+        String mimeType = getHeifMimeType(getUInt32());
+        // Minor version
+        reader.skip(4);
+        for (long brands = (ftypSize - 16) / 4; brands > 0 && mimeType == null; brands--) {
+            mimeType = getHeifMimeType(getUInt32());
+        }
+        if (mimeType == null) {
+            return;
+        }
+        imageInfo.setMimeType(mimeType);
+        long ftypLeft = ftypSize - reader.getPosition();
+        if (ftypLeft > 0 && reader.skip(ftypLeft) != ftypLeft) {
+            return;
+        }
+
+        long metaSize = findBox(HEIF_META_BOX, Long.MAX_VALUE);
+        if (metaSize < 4) {
+            return;
+        }
+        long metaEnd = reader.getPosition() + metaSize;
+        // Version and flags of the full box
+        reader.skip(4);
+
+        long iprpSize = findBox(HEIF_IPRP_BOX, metaEnd);
+        if (iprpSize < 0) {
+            return;
+        }
+        long ipcoSize = findBox(HEIF_IPCO_BOX, reader.getPosition() + iprpSize);
+        if (ipcoSize < 0) {
+            return;
+        }
+        long ipcoEnd = reader.getPosition() + ipcoSize;
+
+        long width = 0, height = 0;
+        boolean rotated = false;
+        long boxSize, boxType, boxEnd;
+        while (reader.getPosition() + 8 <= ipcoEnd) {
+            boxSize = getUInt32();
+            boxType = getUInt32();
+            if (boxSize < 8) {
+                return;
+            }
+            boxEnd = reader.getPosition() + boxSize - 8;
+
+            if (boxType == HEIF_ISPE_BOX && boxSize >= 20) {
+                // Version and flags of the full box
+                reader.skip(4);
+                long propertyWidth = getUInt32();
+                long propertyHeight = getUInt32();
+                if (propertyWidth * propertyHeight > width * height) {
+                    width = propertyWidth;
+                    height = propertyHeight;
+                }
+            } else if (boxType == HEIF_IROT_BOX && boxSize >= 9) {
+                rotated |= (reader.getUInt8() & 1) == 1;
+            }
+
+            long toSkip = boxEnd - reader.getPosition();
+            if (toSkip < 0 || reader.skip(toSkip) != toSkip) {
+                return;
+            }
+        }
+
+        if (!rotated) {
+            setSize(imageInfo, width, height);
+        }
+    }
+
+    private static String getHeifMimeType(long brand) {
+        for (long heicBrand : HEIC_BRANDS) {
+            if (brand == heicBrand) {
+                return MIME_TYPE_HEIC;
+            }
+        }
+        for (long heifBrand : HEIF_BRANDS) {
+            if (brand == heifBrand) {
+                return MIME_TYPE_HEIF;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips ISO BMFF boxes until the box of a given type is found.
+     *
+     * @param end - position where the parent box ends
+     * @return - size of the box contents or -1 if there is no such box
+     */
+    private long findBox(long boxType, long end) throws IOException {
+        long boxSize, type, headerSize;
+        while (reader.getPosition() + 8 <= end) {
+            boxSize = getUInt32();
+            type = getUInt32();
+            headerSize = 8;
+            if (boxSize == 1) {
+                // 64-bit size follows the type
+                boxSize = getUInt32() << 32 | getUInt32();
+                headerSize = 16;
+            }
+            if (boxSize < headerSize) {
+                return -1;
+            } else if (type == boxType) {
+                return boxSize - headerSize;
+            }
+
+            long toSkip = boxSize - headerSize;
+            if (reader.skip(toSkip) != toSkip) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static void setSize(ImageInfo imageInfo, long width, long height) {
+        if (width > 0 && height > 0 && width <= Integer.MAX_VALUE && height <= Integer.MAX_VALUE) {
+            imageInfo.setSize((int) width, (int) height);
+        }
+    }
+
+    // Motorola / big endian byte order.
+    private long getUInt32() throws IOException {
+        return ((long) reader.getUInt16() << 16 | reader.getUInt16()) & 0xFFFFFFFFL;
+    }
+
+    private int getUInt16LittleEndian() throws IOException {
+        return reader.getUInt8() | reader.getUInt8() << 8;
+    }
+
+    private int getUInt24LittleEndian() throws IOException {
+        return reader.getUInt8() | reader.getUInt8() << 8 | reader.getUInt8() << 16;
+    }
+
+    /**
+     * Walks JPEG segments up to the first frame header. Exif segment (it precedes the frame header)
+     * gives orientation and thumbnail location, frame header gives dimensions.
+     */
+    private void parseJpegSegments(ImageInfo imageInfo) throws IOException {
+        short segmentId, segmentType;
+        int segmentLength;
+        boolean exifParsed = false;
+        while (true) {
+            segmentId = reader.getUInt8();
+            if (segmentId != SEGMENT_START_ID) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Unknown segmentId=" + segmentId);
+                }
+                return;
+            }
+
+            segmentType = reader.getUInt8();
+            if (segmentType == SEGMENT_SOS || segmentType == MARKER_EOI) {
+                return;
+            }
+
+            // Segment length includes bytes for segment length.
+            segmentLength = reader.getUInt16() - 2;
+            if (segmentLength < 0) {
+                return;
+            }
+
+            if (isStartOfFrame(segmentType)) {
+                // Sample precision, then height and width
+                reader.getUInt8();
+                int height = reader.getUInt16();
+                int width = reader.getUInt16();
+                imageInfo.setSize(width, height);
+                return;
+            } else if (segmentType == EXIF_SEGMENT_TYPE && !exifParsed) {
+                exifParsed = true;
+                long segmentPosition = reader.getPosition();
+                RandomAccessReader segmentData = reader.readSegment(segmentLength);
+                if (segmentData == null) {
+                    return;
+                }
+                if (hasJpegExifPreamble(segmentData)) {
+                    imageInfo.setExifOrientation(parseExifSegment(segmentData));
+                    parseThumbnailLocation(segmentData, imageInfo,
+                            segmentPosition + JPEG_EXIF_SEGMENT_PREAMBLE.length());
+                }
+            } else {
+                long skipped = reader.skip(segmentLength);
+                if (skipped != segmentLength) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the JPEG segments up to the first frame header and checks whether it describes
+     * a progressive frame. Only the header has to be available, so it can be used for partially
+     * downloaded files.
+     *
+     * @return true if the image is a progressive JPEG, false if it is not a JPEG or a baseline one
+     * @throws IOException
+     */
+    public boolean isProgressiveJpeg() throws IOException {
+        final int magicNumber = reader.getUInt16();
+        if (magicNumber != EXIF_MAGIC_NUMBER) {
+            return false;
+        }
+
+        short segmentId, segmentType;
+        int segmentLength;
+        while (true) {
+            segmentId = reader.getUInt8();
+            if (segmentId != SEGMENT_START_ID) {
+                return false;
+            }
+
+            segmentType = reader.getUInt8();
+            if (segmentType == SEGMENT_SOS || segmentType == MARKER_EOI) {
+                return false;
+            } else if (isStartOfFrame(segmentType)) {
+                return (segmentType & PROGRESSIVE_SOF_MASK) == PROGRESSIVE_SOF_BITS;
+            }
+
+            segmentLength = reader.getUInt16() - 2;
+            if (reader.skip(segmentLength) != segmentLength) {
+                return false;
+            }
         }
     }
 
-    private int parseExifSegment(byte[] tempArray, int exifSegmentLength) throws IOException {
-        int read = reader.read(tempArray, exifSegmentLength);
-        if (read != exifSegmentLength) {
+    private static boolean isStartOfFrame(int segmentType) {
+        return segmentType >= SEGMENT_SOF0 && segmentType <= SEGMENT_SOF15
+                && segmentType != SEGMENT_DHT && segmentType != SEGMENT_JPG && segmentType != SEGMENT_DAC;
+    }
+
+    private int parseExifSegment(int exifSegmentLength) throws IOException {
+        RandomAccessReader segmentData = reader.readSegment(exifSegmentLength);
+        if (segmentData == null) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "Unable to read exif segment data"
-                        + ", length: " + exifSegmentLength
-                        + ", actually read: " + read);
+                Log.d(TAG, "Unable to read exif segment data, length: " + exifSegmentLength);
             }
             return UNKNOWN_ORIENTATION;
         }
 
-        boolean hasJpegExifPreamble = hasJpegExifPreamble(tempArray, exifSegmentLength);
+        boolean hasJpegExifPreamble = hasJpegExifPreamble(segmentData);
         if (hasJpegExifPreamble) {
-            return parseExifSegment(new RandomAccessReader(tempArray, exifSegmentLength));
+            return parseExifSegment(segmentData);
         } else {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "Missing jpeg exif preamble");
@@ -125,12 +567,11 @@ public class ImageHeaderParser {
         }
     }
 
-    private boolean hasJpegExifPreamble(byte[] exifData, int exifSegmentLength) {
-        boolean result =
-                exifData != null && exifSegmentLength > JPEG_EXIF_SEGMENT_PREAMBLE_BYTES.length;
+    private boolean hasJpegExifPreamble(RandomAccessReader segmentData) {
+        boolean result = segmentData.length() > JPEG_EXIF_SEGMENT_PREAMBLE_BYTES.length;
         if (result) {
             for (int i = 0; i < JPEG_EXIF_SEGMENT_PREAMBLE_BYTES.length; i++) {
-                if (exifData[i] != JPEG_EXIF_SEGMENT_PREAMBLE_BYTES[i]) {
+                if (segmentData.getInt8(i) != JPEG_EXIF_SEGMENT_PREAMBLE_BYTES[i]) {
                     result = false;
                     break;
                 }
@@ -186,7 +627,10 @@ public class ImageHeaderParser {
         }
     }
 
-    private static int parseExifSegment(RandomAccessReader segmentData) {
+    /**
+     * Sets byte order of the segment data from the TIFF header and returns the offset of IFD0.
+     */
+    private static int getFirstIfdOffset(RandomAccessReader segmentData) {
         final int headerOffsetSize = JPEG_EXIF_SEGMENT_PREAMBLE.length();
 
         short byteOrderIdentifier = segmentData.getInt16(headerOffsetSize);
@@ -204,7 +648,62 @@ public class ImageHeaderParser {
 
         segmentData.order(byteOrder);
 
-        int firstIfdOffset = segmentData.getInt32(headerOffsetSize + 4) + headerOffsetSize;
+        return segmentData.getInt32(headerOffsetSize + 4) + headerOffsetSize;
+    }
+
+    /**
+     * IFD1 follows IFD0 and describes the embedded thumbnail. Its JPEGInterchangeFormat tags hold
+     * the thumbnail offset (relative to TIFF header) and length.
+     *
+     * @param tiffHeaderPosition - absolute position of the TIFF header in the file
+     */
+    private static void parseThumbnailLocation(RandomAccessReader segmentData, ImageInfo imageInfo, long tiffHeaderPosition) {
+        final int headerOffsetSize = JPEG_EXIF_SEGMENT_PREAMBLE.length();
+
+        int firstIfdOffset = getFirstIfdOffset(segmentData);
+        if (firstIfdOffset < 0 || firstIfdOffset + 2 > segmentData.length()) {
+            return;
+        }
+
+        int nextIfdPointerOffset = calcTagOffset(firstIfdOffset, segmentData.getInt16(firstIfdOffset) & 0xFFFF);
+        if (nextIfdPointerOffset + 4 > segmentData.length()) {
+            return;
+        }
+
+        int secondIfdOffset = segmentData.getInt32(nextIfdPointerOffset);
+        if (secondIfdOffset <= 0) {
+            return;
+        }
+        secondIfdOffset += headerOffsetSize;
+        if (secondIfdOffset + 2 > segmentData.length()) {
+            return;
+        }
+
+        int thumbnailOffset = -1, thumbnailLength = -1;
+        int tagCount = segmentData.getInt16(secondIfdOffset) & 0xFFFF;
+        int tagOffset, tagType;
+        for (int i = 0; i < tagCount; i++) {
+            tagOffset = calcTagOffset(secondIfdOffset, i);
+            if (tagOffset + 12 > segmentData.length()) {
+                break;
+            }
+
+            tagType = segmentData.getInt16(tagOffset) & 0xFFFF;
+            if (tagType == THUMBNAIL_OFFSET_TAG_TYPE) {
+                thumbnailOffset = segmentData.getInt32(tagOffset + 8);
+            } else if (tagType == THUMBNAIL_LENGTH_TAG_TYPE) {
+                thumbnailLength = segmentData.getInt32(tagOffset + 8);
+            }
+        }
+
+        if (thumbnailOffset > 0 && thumbnailLength > 0
+                && headerOffsetSize + thumbnailOffset + thumbnailLength <= segmentData.length()) {
+            imageInfo.setThumbnail(tiffHeaderPosition + thumbnailOffset, thumbnailLength);
+        }
+    }
+
+    private static int parseExifSegment(RandomAccessReader segmentData) {
+        int firstIfdOffset = getFirstIfdOffset(segmentData);
         int tagCount = segmentData.getInt16(firstIfdOffset);
 
         int tagOffset, tagType, formatCode, componentCount;
@@ -292,6 +791,15 @@ public class ImageHeaderParser {
                     .limit(length);
         }
 
+        /**
+         * @param data - buffer whose position is the start of the segment, it is not modified
+         */
+        public RandomAccessReader(ByteBuffer data, int length) {
+            ByteBuffer segment = data.duplicate();
+            segment.limit(segment.position() + length);
+            this.data = segment.slice().order(ByteOrder.BIG_ENDIAN);
+        }
+
         public void order(ByteOrder byteOrder) {
             this.data.order(byteOrder);
         }
@@ -307,9 +815,23 @@ public class ImageHeaderParser {
         public short getInt16(int offset) {
             return data.getShort(offset);
         }
+
+        public byte getInt8(int offset) {
+            return data.get(offset);
+        }
+
+        public void putInt32(int offset, int value) {
+            data.putInt(offset, value);
+        }
+
+        public void putInt16(int offset, short value) {
+            data.putShort(offset, value);
+        }
     }
 
     private interface Reader {
+        long getPosition();
+
         int getUInt16() throws IOException;
 
         short getUInt8() throws IOException;
@@ -317,23 +839,97 @@ public class ImageHeaderParser {
         long skip(long total) throws IOException;
 
         int read(byte[] buffer, int byteCount) throws IOException;
+
+        /**
+         * Reads next {@code length} bytes as a random access segment.
+         *
+         * @return segment data or null if there is not enough data left
+         */
+        RandomAccessReader readSegment(int length) throws IOException;
+    }
+
+    private static class ByteBufferReader implements Reader {
+        private final ByteBuffer buffer;
+
+        // Motorola / big endian byte order.
+        public ByteBufferReader(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        }
+
+        @Override
+        public long getPosition() {
+            return buffer.position();
+        }
+
+        @Override
+        public int getUInt16() throws IOException {
+            if (buffer.remaining() < 2) {
+                buffer.position(buffer.limit());
+                return -1;
+            }
+            return buffer.getShort() & 0xFFFF;
+        }
+
+        @Override
+        public short getUInt8() throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return (short) (buffer.get() & 0xFF);
+        }
+
+        @Override
+        public long skip(long total) throws IOException {
+            if (total < 0) {
+                return 0;
+            }
+
+            int skipped = (int) Math.min(total, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int read(byte[] buffer, int byteCount) throws IOException {
+            int read = Math.min(byteCount, this.buffer.remaining());
+            this.buffer.get(buffer, 0, read);
+            return read;
+        }
+
+        @Override
+        public RandomAccessReader readSegment(int length) throws IOException {
+            if (length < 0 || length > buffer.remaining()) {
+                return null;
+            }
+            RandomAccessReader segment = new RandomAccessReader(buffer, length);
+            buffer.position(buffer.position() + length);
+            return segment;
+        }
     }
 
     private static class StreamReader implements Reader {
         private final InputStream is;
+        private long position;
 
         // Motorola / big endian byte order.
         public StreamReader(InputStream is) {
             this.is = is;
         }
 
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
         @Override
         public int getUInt16() throws IOException {
+            position += 2;
             return (is.read() << 8 & 0xFF00) | (is.read() & 0xFF);
         }
 
         @Override
         public short getUInt8() throws IOException {
+            position++;
             return (short) (is.read() & 0xFF);
         }
 
@@ -361,6 +957,7 @@ public class ImageHeaderParser {
                     }
                 }
             }
+            position += total - toSkip;
             return total - toSkip;
         }
 
@@ -371,10 +968,238 @@ public class ImageHeaderParser {
             while (toRead > 0 && ((read = is.read(buffer, byteCount - toRead, toRead)) != -1)) {
                 toRead -= read;
             }
+            position += byteCount - toRead;
             return byteCount - toRead;
         }
+
+        @Override
+        public RandomAccessReader readSegment(int length) throws IOException {
+            if (length < 0) {
+                return null;
+            }
+            byte[] segment = new byte[length];
+            if (read(segment, length) != length) {
+                return null;
+            }
+            return new RandomAccessReader(segment, length);
+        }
+    }
+
+    /**
+     * Writes exif segment of the source image into the cropped JPEG, see {@link #prepareExifSegment(byte[], int, int)}.
+     * Saved output is rewritten once with a sequential copy.
+     *
+     * @param exifSegment - segment data returned by {@link #getExifSegment()}, it is modified
+     */
+    public static void copyExif(byte[] exifSegment, int width, int height, String imageOutputPath) {
+        int segmentLength = prepareExifSegment(exifSegment, width, height);
+        if (segmentLength >= 0) {
+            insertExifSegment(exifSegment, segmentLength, imageOutputPath);
+        }
+    }
+
+    /**
+     * Patches exif segment of the source image in memory: orientation is reset (cropped pixels are
+     * already rotated), dimensions are set to the cropped ones and the link to the source thumbnail
+     * is dropped, as it no longer matches the image.
+     *
+     * @param exifSegment - segment data returned by {@link #getExifSegment()}, it is modified
+     * @return - length of the APP1 payload to write, -1 if the segment can't be carried over
+     */
+    public static int prepareExifSegment(byte[] exifSegment, int width, int height) {
+        try {
+            int segmentLength = patchExifSegment(exifSegment, width, height);
+            if (segmentLength + 2 > MAX_SEGMENT_LENGTH) {
+                Log.w(TAG, "prepareExifSegment: exif segment is too long - " + segmentLength);
+                return -1;
+            }
+            return segmentLength;
+        } catch (RuntimeException e) {
+            Log.d(TAG, "prepareExifSegment: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Inserts prepared APP1 segment into the saved JPEG, after SOI and any JFIF/JFXX APP0 segments,
+     * which must come first in the file.
+     */
+    public static void insertExifSegment(byte[] exifSegment, int segmentLength, String imageOutputPath) {
+        try {
+            writeExifSegment(exifSegment, segmentLength, imageOutputPath);
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "insertExifSegment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return - length of the patched segment, trailing thumbnail data is cut off
+     */
+    private static int patchExifSegment(byte[] exifSegment, int width, int height) {
+        final int headerOffsetSize = JPEG_EXIF_SEGMENT_PREAMBLE.length();
+        RandomAccessReader segmentData = new RandomAccessReader(exifSegment, exifSegment.length);
+
+        ImageInfo thumbnailInfo = new ImageInfo();
+        parseThumbnailLocation(segmentData, thumbnailInfo, 0);
+
+        int firstIfdOffset = getFirstIfdOffset(segmentData);
+        int exifIfdOffset = patchIfd(segmentData, firstIfdOffset, width, height);
+        if (exifIfdOffset > 0) {
+            patchIfd(segmentData, exifIfdOffset + headerOffsetSize, width, height);
+        }
+
+        int nextIfdPointerOffset = calcTagOffset(firstIfdOffset, segmentData.getInt16(firstIfdOffset) & 0xFFFF);
+        if (nextIfdPointerOffset + 4 <= segmentData.length()) {
+            segmentData.putInt32(nextIfdPointerOffset, 0);
+        }
+
+        // Thumbnail is usually stored at the very end of the segment
+        if (thumbnailInfo.hasThumbnail()) {
+            long thumbnailStart = headerOffsetSize + thumbnailInfo.getThumbnailOffset();
+            if (thumbnailStart + thumbnailInfo.getThumbnailLength() == exifSegment.length
+                    && thumbnailStart > nextIfdPointerOffset) {
+                return (int) thumbnailStart;
+            }
+        }
+        return exifSegment.length;
+    }
+
+    /**
+     * Patches orientation and dimension tags of a single IFD.
+     *
+     * @return - offset of the Exif IFD (relative to TIFF header) if IFD points to it, -1 otherwise
+     */
+    private static int patchIfd(RandomAccessReader segmentData, int ifdOffset, int width, int height) {
+        if (ifdOffset < 0 || ifdOffset + 2 > segmentData.length()) {
+            return -1;
+        }
+
+        int exifIfdOffset = -1;
+        int tagCount = segmentData.getInt16(ifdOffset) & 0xFFFF;
+        int tagOffset, tagType;
+        for (int i = 0; i < tagCount; i++) {
+            tagOffset = calcTagOffset(ifdOffset, i);
+            if (tagOffset + 12 > segmentData.length()) {
+                break;
+            }
+
+            tagType = segmentData.getInt16(tagOffset) & 0xFFFF;
+            switch (tagType) {
+                case ORIENTATION_TAG_TYPE:
+                    setTagValue(segmentData, tagOffset, ExifInterface.ORIENTATION_NORMAL);
+                    break;
+                case IMAGE_WIDTH_TAG_TYPE:
+                case PIXEL_X_DIMENSION_TAG_TYPE:
+                    setTagValue(segmentData, tagOffset, width);
+                    break;
+                case IMAGE_LENGTH_TAG_TYPE:
+                case PIXEL_Y_DIMENSION_TAG_TYPE:
+                    setTagValue(segmentData, tagOffset, height);
+                    break;
+                case EXIF_IFD_POINTER_TAG_TYPE:
+                    exifIfdOffset = segmentData.getInt32(tagOffset + 8);
+                    break;
+            }
+        }
+        return exifIfdOffset;
+    }
+
+    /**
+     * Single SHORT or LONG value is stored right in the tag entry, so it can be replaced in place.
+     */
+    private static void setTagValue(RandomAccessReader segmentData, int tagOffset, int value) {
+        int formatCode = segmentData.getInt16(tagOffset + 2);
+        if (segmentData.getInt32(tagOffset + 4) != 1) {
+            return;
+        }
+
+        if (formatCode == FORMAT_UNSIGNED_SHORT && value <= 0xFFFF) {
+            segmentData.putInt32(tagOffset + 8, 0);
+            segmentData.putInt16(tagOffset + 8, (short) value);
+        } else if (formatCode == FORMAT_UNSIGNED_SHORT || formatCode == FORMAT_UNSIGNED_LONG) {
+            segmentData.putInt16(tagOffset + 2, (short) FORMAT_UNSIGNED_LONG);
+            segmentData.putInt32(tagOffset + 8, value);
+        }
+    }
+
+    private static void writeExifSegment(byte[] exifSegment, int segmentLength, String imageOutputPath) throws IOException {
+        File outputFile = new File(imageOutputPath);
+        File tempFile = new File(imageOutputPath + ".exif");
+
+        FileChannel inputChannel = null;
+        FileChannel outputChannel = null;
+        try {
+            inputChannel = new FileInputStream(outputFile).getChannel();
+            ByteBuffer startOfImage = ByteBuffer.allocate(2);
+            if (inputChannel.read(startOfImage, 0) != 2 || (startOfImage.getShort(0) & 0xFFFF) != EXIF_MAGIC_NUMBER) {
+                throw new IOException("Output is not a JPEG file: " + imageOutputPath);
+            }
+            int insertOffset = findExifInsertOffset(inputChannel);
+
+            ByteBuffer head = ByteBuffer.allocate(insertOffset);
+            while (head.hasRemaining()) {
+                if (inputChannel.read(head, head.position()) <= 0) {
+                    throw new IOException("Unexpected end of file: " + imageOutputPath);
+                }
+            }
+            head.flip();
+
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+            header.put((byte) SEGMENT_START_ID).put((byte) EXIF_SEGMENT_TYPE);
+            header.putShort((short) (segmentLength + 2));
+            header.flip();
+
+            outputChannel = new FileOutputStream(tempFile).getChannel();
+            while (head.hasRemaining()) {
+                outputChannel.write(head);
+            }
+            while (header.hasRemaining()) {
+                outputChannel.write(header);
+            }
+            ByteBuffer segment = ByteBuffer.wrap(exifSegment, 0, segmentLength);
+            while (segment.hasRemaining()) {
+                outputChannel.write(segment);
+            }
+            inputChannel.position(insertOffset);
+            FileUtils.copyChannel(inputChannel, outputChannel);
+        } catch (IOException e) {
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.w(TAG, "Unable to delete: " + tempFile);
+            }
+            throw e;
+        } finally {
+            if (inputChannel != null) inputChannel.close();
+            if (outputChannel != null) outputChannel.close();
+        }
+
+        FileUtils.moveFile(tempFile.getPath(), imageOutputPath);
+    }
+
+    /**
+     * @return - offset right after SOI and the APP0 segments following it
+     */
+    private static int findExifInsertOffset(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long offset = 2;
+        ByteBuffer marker = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+        while (true) {
+            marker.clear();
+            if (channel.read(marker, offset) != 4
+                    || (marker.get(0) & 0xFF) != SEGMENT_START_ID || (marker.get(1) & 0xFF) != APP0_SEGMENT_TYPE) {
+                return (int) offset;
+            }
+            offset += 2 + (marker.getShort(2) & 0xFFFF);
+            if (offset > size || offset > Integer.MAX_VALUE) {
+                throw new IOException("Malformed APP0 segment");
+            }
+        }
     }
 
+    /**
+     * @deprecated exif is rewritten with {@link ExifInterface#saveAttributes()}, which parses and
+     * rewrites the whole output file. Use {@link #copyExif(byte[], int, int, String)} instead.
+     */
+    @Deprecated
     public static void copyExif(ExifInterface originalExif, int width, int height, String imageOutputPath) {
         String[] attributes = new String[]{
                 ExifInterface.TAG_APERTURE,
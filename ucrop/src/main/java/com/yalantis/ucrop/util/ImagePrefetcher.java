@@ -0,0 +1,197 @@
+package com.yalantis.ucrop.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.callback.ImageInfoCallback;
+import com.yalantis.ucrop.callback.PreviewBitmapLoadCallback;
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.task.BitmapLoadTask;
+import com.yalantis.ucrop.task.TaskExecutors;
+import com.yalantis.ucrop.task.TaskFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Loads an image before the crop screen is shown, see {@link com.yalantis.ucrop.UCrop#prefetch}.
+ * <p/>
+ * Remote and not directly readable images are downloaded or copied into the cache directory,
+ * decoded bitmap is put into {@link BitmapMemoryCache}. A view that asks for the same image while
+ * it is still loading is attached to the running load instead of starting another one.
+ * All methods must be called on the main thread.
+ */
+public class ImagePrefetcher {
+
+    private static final String TAG = "ImagePrefetcher";
+
+    private static final String PREFETCH_DIRECTORY = "ucrop_prefetch";
+    private static final long PREFETCH_FILE_EXPIRATION = 24 * 60 * 60 * 1000;
+
+    private static final Map<String, List<PendingCallback>> sPendingLoads = new HashMap<>();
+
+    private interface PrefetchCallback extends PreviewBitmapLoadCallback, ImageInfoCallback {
+    }
+
+    private static class PendingCallback {
+
+        final BitmapLoadCallback mCallback;
+        final String mImageOutputPath;
+
+        PendingCallback(@NonNull BitmapLoadCallback callback, @Nullable String imageOutputPath) {
+            mCallback = callback;
+            mImageOutputPath = imageOutputPath;
+        }
+
+    }
+
+    private ImagePrefetcher() {
+    }
+
+    /**
+     * Starts loading the image unless it is already cached or being loaded. The cache key is built
+     * on the I/O pool first, so a view opening the image right away may start a load of its own.
+     *
+     * @param maxBitmapSize  - max bitmap size the view will ask for, see {@link BitmapLoadUtils#calculateMaxBitmapSize(Context)}
+     * @param previewQuality - preview quality the view will ask for
+     */
+    public static void prefetch(@NonNull Context context, @NonNull final Uri imageUri,
+                                final int maxBitmapSize, final int previewQuality) {
+        final Context appContext = context.getApplicationContext();
+        // Key and prefetch directory need I/O, the rest is done on the main thread with the pending loads
+        TaskFuture<String> keyFuture = new TaskFuture<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                File directory = new File(appContext.getCacheDir(), PREFETCH_DIRECTORY);
+                if (!directory.exists() && !directory.mkdirs()) {
+                    throw new IOException("Unable to create directory: " + directory);
+                }
+                deleteExpiredFiles(directory);
+                return BitmapMemoryCache.createKey(appContext, imageUri, maxBitmapSize, previewQuality);
+            }
+        });
+        keyFuture.addListener(new TaskFuture.Listener<String>() {
+            @Override
+            public void onSuccess(@NonNull String cacheKey) {
+                startLoad(appContext, imageUri, maxBitmapSize, previewQuality, cacheKey);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                Log.w(TAG, "Prefetch failed for " + imageUri, throwable);
+            }
+        }, TaskFuture.mainThreadExecutor());
+        TaskExecutors.getIoExecutor(TaskExecutors.PRIORITY_BACKGROUND).execute(keyFuture);
+    }
+
+    private static void startLoad(@NonNull Context appContext, @NonNull Uri imageUri,
+                                  int maxBitmapSize, int previewQuality, @NonNull final String cacheKey) {
+        final BitmapMemoryCache memoryCache = BitmapMemoryCache.getInstance(appContext);
+        if (sPendingLoads.containsKey(cacheKey) || memoryCache.get(cacheKey) != null) {
+            return;
+        }
+
+        File directory = new File(appContext.getCacheDir(), PREFETCH_DIRECTORY);
+        Uri prefetchUri = Uri.fromFile(new File(directory, FileUtils.md5(cacheKey)));
+
+        sPendingLoads.put(cacheKey, new ArrayList<PendingCallback>());
+        new BitmapLoadTask(appContext, imageUri, prefetchUri, maxBitmapSize, maxBitmapSize, previewQuality,
+                new PrefetchCallback() {
+
+                    private ImageInfo mImageInfo = new ImageInfo();
+
+                    @Override
+                    public void onPreviewLoaded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo) {
+                        List<PendingCallback> pendingCallbacks = sPendingLoads.get(cacheKey);
+                        if (pendingCallbacks != null && !pendingCallbacks.isEmpty()
+                                && pendingCallbacks.get(0).mCallback instanceof PreviewBitmapLoadCallback) {
+                            // Only one view can own a preview bitmap
+                            ((PreviewBitmapLoadCallback) pendingCallbacks.get(0).mCallback).onPreviewLoaded(preview, exifInfo);
+                        }
+                    }
+
+                    @Override
+                    public void onImageInfoLoaded(@NonNull ImageInfo imageInfo) {
+                        mImageInfo = imageInfo;
+                    }
+
+                    @Override
+                    public void onBitmapLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo,
+                                               @NonNull String imageInputPath, @Nullable String imageOutputPath) {
+                        memoryCache.put(cacheKey, bitmap, exifInfo, mImageInfo, imageInputPath);
+                        List<PendingCallback> pendingCallbacks = sPendingLoads.remove(cacheKey);
+                        if (pendingCallbacks != null) {
+                            for (PendingCallback pending : pendingCallbacks) {
+                                if (pending.mCallback instanceof ImageInfoCallback) {
+                                    ((ImageInfoCallback) pending.mCallback).onImageInfoLoaded(mImageInfo);
+                                }
+                                pending.mCallback.onBitmapLoaded(bitmap, exifInfo, imageInputPath, pending.mImageOutputPath);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Exception bitmapWorkerException) {
+                        Log.w(TAG, "Prefetch failed for " + cacheKey, bitmapWorkerException);
+                        List<PendingCallback> pendingCallbacks = sPendingLoads.remove(cacheKey);
+                        if (pendingCallbacks != null) {
+                            for (PendingCallback pending : pendingCallbacks) {
+                                pending.mCallback.onFailure(bitmapWorkerException);
+                            }
+                        }
+                    }
+                }).start(TaskExecutors.PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * @return - true if the image is being prefetched, callback will be called once it is loaded
+     */
+    public static boolean attach(@NonNull String cacheKey, @NonNull BitmapLoadCallback callback, @Nullable String imageOutputPath) {
+        List<PendingCallback> pendingCallbacks = sPendingLoads.get(cacheKey);
+        if (pendingCallbacks == null) {
+            return false;
+        }
+        pendingCallbacks.add(new PendingCallback(callback, imageOutputPath));
+        return true;
+    }
+
+    /**
+     * Callback won't be called after that, prefetch itself goes on.
+     */
+    public static void detach(@NonNull String cacheKey, @NonNull BitmapLoadCallback callback) {
+        List<PendingCallback> pendingCallbacks = sPendingLoads.get(cacheKey);
+        if (pendingCallbacks == null) {
+            return;
+        }
+        for (int i = 0; i < pendingCallbacks.size(); i++) {
+            if (pendingCallbacks.get(i).mCallback == callback) {
+                pendingCallbacks.remove(i);
+                return;
+            }
+        }
+    }
+
+    private static void deleteExpiredFiles(@NonNull File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (System.currentTimeMillis() - file.lastModified() > PREFETCH_FILE_EXPIRATION && !file.delete()) {
+                Log.w(TAG, "Unable to delete: " + file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.yalantis.ucrop.util;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Keeps a partially downloaded file for a remote Uri, so an interrupted download can be continued
+ * with a Range request instead of starting from byte zero.
+ * <p/>
+ * Partial files are keyed by url and validated by ETag (or Last-Modified if server gives no ETag).
+ * Downloads without any validator or without a known length are not resumable, because there is
+ * no way to tell whether the bytes on the server are still the same or whether the file is complete.
+ * <p/>
+ * Loads of the same url share the partial file, so it must be held with {@link #claim()}
+ * while it is read or written.
+ */
+public class ResumableDownload {
+
+    private static final String TAG = "ResumableDownload";
+
+    private static final String DOWNLOADS_DIRECTORY = "ucrop_downloads";
+    private static final String PART_FILE_EXTENSION = ".part";
+    private static final String META_FILE_EXTENSION = ".meta";
+
+    private static final String META_URL = "url";
+    private static final String META_VALIDATOR = "validator";
+    private static final String META_TOTAL_LENGTH = "totalLength";
+
+    private static final long PARTIAL_DOWNLOAD_EXPIRATION = 24 * 60 * 60 * 1000;
+
+    private static final Set<String> sClaimedKeys = new HashSet<>();
+
+    private final String mUrl;
+    private final String mKey;
+    private final File mPartFile;
+    private final File mMetaFile;
+
+    @Nullable
+    private String mValidator;
+    private long mTotalLength = -1;
+
+    public ResumableDownload(@NonNull Context context, @NonNull String url) {
+        mUrl = url;
+
+        File directory = new File(context.getCacheDir(), DOWNLOADS_DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create directory: " + directory);
+        }
+
+        mKey = FileUtils.md5(url);
+        mPartFile = new File(directory, mKey + PART_FILE_EXTENSION);
+        mMetaFile = new File(directory, mKey + META_FILE_EXTENSION);
+    }
+
+    /**
+     * Takes the partial file of this url, waiting while another load of the same url holds it,
+     * and reads its state. Must be paired with {@link #release()}.
+     */
+    public void claim() throws InterruptedIOException {
+        synchronized (sClaimedKeys) {
+            while (sClaimedKeys.contains(mKey)) {
+                try {
+                    sClaimedKeys.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for partial download of " + mUrl);
+                }
+            }
+            sClaimedKeys.add(mKey);
+        }
+        readMeta();
+    }
+
+    public void release() {
+        synchronized (sClaimedKeys) {
+            if (sClaimedKeys.remove(mKey)) {
+                sClaimedKeys.notifyAll();
+            }
+        }
+    }
+
+    @NonNull
+    public File getPartFile() {
+        return mPartFile;
+    }
+
+    /**
+     * @return - ETag or Last-Modified value of the partial file, null if download cannot be resumed
+     */
+    @Nullable
+    public String getValidator() {
+        return mValidator;
+    }
+
+    /**
+     * @return - length of the complete file reported by the server or -1 if unknown
+     */
+    public long getTotalLength() {
+        return mTotalLength;
+    }
+
+    /**
+     * @return - amount of bytes that can be requested with a Range request, 0 if download must start over
+     */
+    public long getResumeOffset() {
+        if (TextUtils.isEmpty(mValidator) || mTotalLength <= 0 || !mPartFile.exists()) {
+            return 0;
+        }
+        if (System.currentTimeMillis() - mPartFile.lastModified() > PARTIAL_DOWNLOAD_EXPIRATION) {
+            return 0;
+        }
+        return mPartFile.length();
+    }
+
+    public boolean isComplete() {
+        return mTotalLength > 0 && mPartFile.exists() && mPartFile.length() == mTotalLength;
+    }
+
+    /**
+     * Starts the partial file over and remembers the validator and length of the new response.
+     *
+     * @param totalLength - length of the complete file, must be known
+     */
+    public void restart(@Nullable String validator, long totalLength) throws IOException {
+        if (totalLength <= 0) {
+            throw new IllegalArgumentException("Download of unknown length cannot be resumed: " + totalLength);
+        }
+        delete();
+        mValidator = validator;
+        mTotalLength = totalLength;
+        writeMeta();
+    }
+
+    /**
+     * Checks that a 206 response continues the partial file: validator (if server sent one) and
+     * total length from Content-Range must match the ones the file was started with.
+     */
+    public boolean matches(@Nullable String validator, long totalLength) {
+        return mTotalLength > 0 && totalLength == mTotalLength
+                && (validator == null || validator.equals(mValidator));
+    }
+
+    /**
+     * Moves complete file to the destination path, see {@link FileUtils#moveFile(String, String)}.
+     */
+    public void moveTo(@NonNull String destinationPath) throws IOException {
+        if (!isComplete()) {
+            throw new IOException(String.format(Locale.US, "Download is incomplete: %d of %d bytes",
+                    mPartFile.length(), mTotalLength));
+        }
+
+        FileUtils.moveFile(mPartFile.getPath(), destinationPath);
+        delete();
+    }
+
+    public void delete() {
+        if (mPartFile.exists() && !mPartFile.delete()) {
+            Log.w(TAG, "Unable to delete: " + mPartFile);
+        }
+        if (mMetaFile.exists() && !mMetaFile.delete()) {
+            Log.w(TAG, "Unable to delete: " + mMetaFile);
+        }
+        mValidator = null;
+        mTotalLength = -1;
+    }
+
+    private void readMeta() {
+        if (!mMetaFile.exists()) {
+            return;
+        }
+
+        Properties meta = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(mMetaFile);
+            meta.load(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "readMeta: ", e);
+            return;
+        } finally {
+            BitmapLoadUtils.close(inputStream);
+        }
+
+        // Hash collision or a meta written by another url
+        if (!mUrl.equals(meta.getProperty(META_URL))) {
+            return;
+        }
+
+        mValidator = meta.getProperty(META_VALIDATOR);
+        try {
+            mTotalLength = Long.parseLong(meta.getProperty(META_TOTAL_LENGTH, "-1"));
+        } catch (NumberFormatException e) {
+            mTotalLength = -1;
+        }
+    }
+
+    private void writeMeta() throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, mUrl);
+        meta.setProperty(META_TOTAL_LENGTH, String.valueOf(mTotalLength));
+        if (mValidator != null) {
+            meta.setProperty(META_VALIDATOR, mValidator);
+        }
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(mMetaFile);
+            meta.store(outputStream, null);
+        } finally {
+            BitmapLoadUtils.close(outputStream);
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.yalantis.ucrop.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sizing policy of {@link BitmapPool}, kept apart from {@link android.graphics.Bitmap} so it can be tested.
+ * <p/>
+ * Items are bucketed by allocation size, a request is served from the smallest bucket that is large
+ * enough, unless it is more than the given multiple of the requested size. Total size is capped,
+ * the largest items are evicted first. Not thread safe.
+ */
+abstract class SizeBucketPool<T> {
+
+    private final TreeMap<Integer, ArrayDeque<T>> mBuckets = new TreeMap<>();
+    private final long mMaxSize;
+    private final int mMaxSizeMultiple;
+    private long mCurrentSize;
+
+    SizeBucketPool(long maxSize, int maxSizeMultiple) {
+        mMaxSize = maxSize;
+        mMaxSizeMultiple = maxSizeMultiple;
+    }
+
+    /**
+     * @return - item that was put last into the best fitting bucket, it is removed from the pool
+     */
+    @Nullable
+    T get(int size) {
+        Integer bucketSize = mBuckets.ceilingKey(size);
+        if (bucketSize == null || bucketSize > (long) size * mMaxSizeMultiple) {
+            return null;
+        }
+        return removeFromBucket(bucketSize);
+    }
+
+    /**
+     * Item larger than the whole pool or already pooled is ignored.
+     */
+    void put(@NonNull T item, int size) {
+        if (size > mMaxSize) {
+            return;
+        }
+
+        ArrayDeque<T> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(size, bucket);
+        } else if (bucket.contains(item)) {
+            return;
+        }
+        bucket.push(item);
+        mCurrentSize += size;
+
+        trimToSize(mMaxSize);
+    }
+
+    void clear() {
+        trimToSize(0);
+    }
+
+    long getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    /**
+     * Called for an item dropped to keep the pool within its max size.
+     */
+    abstract void onEvicted(@NonNull T item);
+
+    private void trimToSize(long maxSize) {
+        Map.Entry<Integer, ArrayDeque<T>> largest;
+        while (mCurrentSize > maxSize && (largest = mBuckets.lastEntry()) != null) {
+            onEvicted(removeFromBucket(largest.getKey()));
+        }
+    }
+
+    @NonNull
+    private T removeFromBucket(int bucketSize) {
+        ArrayDeque<T> bucket = mBuckets.get(bucketSize);
+        T item = bucket.pop();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(bucketSize);
+        }
+        mCurrentSize -= bucketSize;
+        return item;
+    }
+
+}
@@ -0,0 +1,296 @@
+package com.yalantis.ucrop.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.task.TaskExecutors;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Draws sharp tiles of the source image over the low resolution base bitmap when it is zoomed in
+ * further than the base bitmap resolution allows.
+ * <p/>
+ * Tiles are decoded on demand with {@link BitmapRegionDecoder} on the CPU pool of {@link TaskExecutors}
+ * at the sample size matching the current scale, so a tile has roughly as many pixels as it covers on the screen.
+ * Decoded tiles are kept in an LRU cache limited to a few screens worth of pixels,
+ * evicted tiles are returned to {@link BitmapPool}. Until a tile is decoded the base bitmap shows through.
+ */
+public class TiledImageRenderer {
+
+    private static final String TAG = "TiledImageRenderer";
+
+    private static final int TILE_SIZE = 512;
+    private static final int CACHE_SIZE_SCREENS = 3;
+    private static final int BYTES_PER_PIXEL = 4;
+    // Bits of a tile key taken by each of sample size, column and row
+    private static final int TILE_KEY_BITS = 21;
+
+    private final View mView;
+    private final String mImagePath;
+    private final int mImageWidth, mImageHeight;
+    private final float mBaseSampleSize;
+
+    private final Matrix mOrientationMatrix = new Matrix();
+    private final float mOrientedWidth, mOrientedHeight;
+
+    private final Matrix mTileMatrix = new Matrix();
+    private final Matrix mInverseMatrix = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mTileRect = new RectF();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final LruCache<Long, Bitmap> mTileCache;
+    private final Set<Long> mPendingTiles = new HashSet<>();
+    private final Executor mExecutor = TaskExecutors.getCpuExecutor(TaskExecutors.PRIORITY_INTERACTIVE);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Tiles may be decoded on several threads of the pool
+    private final Object mDecoderLock = new Object();
+
+    private BitmapRegionDecoder mDecoder;
+    private volatile boolean mDecoderFailed;
+    private volatile boolean mReleased;
+    private volatile int mWantedSampleSize;
+
+    /**
+     * @param imagePath      - local path of the source image
+     * @param imageInfo      - source image size (as stored, before exif orientation)
+     * @param exifInfo       - exif orientation of the source image
+     * @param baseImageWidth - width of the base bitmap (as stored, before exif orientation)
+     */
+    public TiledImageRenderer(@NonNull View view, @NonNull String imagePath,
+                              @NonNull ImageInfo imageInfo, @NonNull ExifInfo exifInfo, int baseImageWidth) {
+        mView = view;
+        mImagePath = imagePath;
+        mImageWidth = imageInfo.getWidth();
+        mImageHeight = imageInfo.getHeight();
+        mBaseSampleSize = mImageWidth / (float) baseImageWidth;
+
+        if (exifInfo.getExifDegrees() != 0) {
+            mOrientationMatrix.preRotate(exifInfo.getExifDegrees());
+        }
+        if (exifInfo.getExifTranslation() != 1) {
+            mOrientationMatrix.postScale(exifInfo.getExifTranslation(), 1);
+        }
+        RectF orientedRect = new RectF(0, 0, mImageWidth, mImageHeight);
+        mOrientationMatrix.mapRect(orientedRect);
+        mOrientationMatrix.postTranslate(-orientedRect.left, -orientedRect.top);
+        mOrientedWidth = orientedRect.width();
+        mOrientedHeight = orientedRect.height();
+
+        DisplayMetrics displayMetrics = view.getResources().getDisplayMetrics();
+        int cacheSize = displayMetrics.widthPixels * displayMetrics.heightPixels * BYTES_PER_PIXEL * CACHE_SIZE_SCREENS;
+        mTileCache = new LruCache<Long, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                BitmapPool.getInstance().put(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Draws tiles that are visible in the viewport. Must be called on the main thread.
+     *
+     * @param drawableMatrix - matrix that maps the drawable (oriented image of given intrinsic size)
+     *                       onto the canvas
+     * @param viewportWidth  - width of the visible area of the canvas
+     * @param viewportHeight - height of the visible area of the canvas
+     */
+    public void draw(@NonNull Canvas canvas, @NonNull Matrix drawableMatrix, int drawableWidth, int drawableHeight,
+                     int viewportWidth, int viewportHeight) {
+        if (mReleased || mDecoderFailed || mImageWidth <= 0 || mImageHeight <= 0) {
+            return;
+        }
+
+        mTileMatrix.set(mOrientationMatrix);
+        mTileMatrix.postScale(drawableWidth / mOrientedWidth, drawableHeight / mOrientedHeight);
+        mTileMatrix.postConcat(drawableMatrix);
+
+        // Screen pixels per source pixel
+        mTileMatrix.getValues(mMatrixValues);
+        float scale = (float) Math.sqrt(Math.pow(mMatrixValues[Matrix.MSCALE_X], 2)
+                + Math.pow(mMatrixValues[Matrix.MSKEW_Y], 2));
+
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        if (sampleSize >= mBaseSampleSize) {
+            // Base bitmap is sharp enough at this scale
+            mWantedSampleSize = 0;
+            return;
+        }
+        mWantedSampleSize = sampleSize;
+
+        if (!mTileMatrix.invert(mInverseMatrix)) {
+            return;
+        }
+        mVisibleRect.set(0, 0, viewportWidth, viewportHeight);
+        mInverseMatrix.mapRect(mVisibleRect);
+        if (!mVisibleRect.intersect(0, 0, mImageWidth, mImageHeight)) {
+            return;
+        }
+
+        int tileSourceSize = TILE_SIZE * sampleSize;
+        int firstColumn = (int) (mVisibleRect.left / tileSourceSize);
+        int lastColumn = (int) Math.ceil(mVisibleRect.right / tileSourceSize);
+        int firstRow = (int) (mVisibleRect.top / tileSourceSize);
+        int lastRow = (int) Math.ceil(mVisibleRect.bottom / tileSourceSize);
+
+        int saveCount = canvas.save();
+        canvas.concat(mTileMatrix);
+        long key;
+        Bitmap tile;
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int column = firstColumn; column < lastColumn; column++) {
+                mTileRect.set(column * tileSourceSize, row * tileSourceSize,
+                        Math.min(mImageWidth, (column + 1) * tileSourceSize),
+                        Math.min(mImageHeight, (row + 1) * tileSourceSize));
+
+                key = getTileKey(sampleSize, column, row);
+                tile = mTileCache.get(key);
+                if (tile != null && !tile.isRecycled()) {
+                    canvas.drawBitmap(tile, null, mTileRect, mPaint);
+                } else {
+                    requestTile(key, sampleSize);
+                }
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Stops decoding and returns all cached tiles to {@link BitmapPool}. Must be called on the main thread.
+     */
+    public void release() {
+        mReleased = true;
+        mTileCache.evictAll();
+        mPendingTiles.clear();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mDecoderLock) {
+                    if (mDecoder != null) {
+                        mDecoder.recycle();
+                        mDecoder = null;
+                    }
+                }
+            }
+        });
+    }
+
+    private void requestTile(final long key, final int sampleSize) {
+        if (!mPendingTiles.add(key)) {
+            return;
+        }
+
+        final Rect region = new Rect();
+        mTileRect.round(region);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Scale has changed while the tile was waiting in the queue
+                final Bitmap tile = mReleased || sampleSize != mWantedSampleSize ? null : decodeTile(region, sampleSize);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPendingTiles.remove(key);
+                        if (tile == null) {
+                            return;
+                        }
+                        if (mReleased) {
+                            BitmapPool.getInstance().put(tile);
+                        } else {
+                            mTileCache.put(key, tile);
+                            mView.invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Nullable
+    private Bitmap decodeTile(@NonNull Rect region, int sampleSize) {
+        synchronized (mDecoderLock) {
+            // Decoder is recycled once released, it must not be opened again
+            BitmapRegionDecoder decoder = mReleased ? null : getDecoder();
+            return decoder == null ? null : decodeTile(decoder, region, sampleSize);
+        }
+    }
+
+    @Nullable
+    private static Bitmap decodeTile(@NonNull BitmapRegionDecoder decoder, @NonNull Rect region, int sampleSize) {
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        if (BitmapPool.isSupported()) {
+            options.inMutable = true;
+            options.inBitmap = BitmapPool.getInstance().get(
+                    (int) Math.ceil(region.width() / (float) sampleSize),
+                    (int) Math.ceil(region.height() / (float) sampleSize),
+                    Bitmap.Config.ARGB_8888);
+        }
+
+        try {
+            try {
+                return decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                // Pooled bitmap can't be reused for this region
+                BitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
+                return decoder.decodeRegion(region, options);
+            }
+        } catch (OutOfMemoryError error) {
+            Log.e(TAG, "decodeTile: ", error);
+            return null;
+        }
+    }
+
+    @Nullable
+    private BitmapRegionDecoder getDecoder() {
+        if (mDecoder == null && !mDecoderFailed) {
+            try {
+                mDecoder = BitmapRegionDecoder.newInstance(mImagePath, false);
+            } catch (IOException e) {
+                // Not every format can be decoded by regions, base bitmap is used then
+                Log.w(TAG, "getDecoder: " + e.getMessage());
+                mDecoderFailed = true;
+            }
+        }
+        return mDecoder;
+    }
+
+    /**
+     * Packs the tile position into a key without formatting a string for each tile on each frame.
+     */
+    private static long getTileKey(int sampleSize, int column, int row) {
+        return ((long) sampleSize << (2 * TILE_KEY_BITS)) | ((long) column << TILE_KEY_BITS) | row;
+    }
+
+}
@@ -3,21 +3,32 @@ package com.yalantis.ucrop.view;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
+import android.util.Log;
 
 import com.yalantis.ucrop.R;
 import com.yalantis.ucrop.callback.BitmapCropCallback;
 import com.yalantis.ucrop.callback.CropBoundsChangeListener;
+import com.yalantis.ucrop.callback.CropGeometryCallback;
 import com.yalantis.ucrop.model.CropParameters;
 import com.yalantis.ucrop.model.ImageState;
+import com.yalantis.ucrop.model.RetainedImageState;
 import com.yalantis.ucrop.task.BitmapCropTask;
+import com.yalantis.ucrop.task.QuickCropTask;
+import com.yalantis.ucrop.task.TaskExecutors;
+import com.yalantis.ucrop.util.BitmapPool;
 import com.yalantis.ucrop.util.CubicEasing;
+import com.yalantis.ucrop.util.FastBitmapDrawable;
 import com.yalantis.ucrop.util.RectUtils;
 
 import java.lang.ref.WeakReference;
@@ -31,6 +42,8 @@ import java.util.Arrays;
  */
 public class CropImageView extends TransformImageView {
 
+    private static final String TAG = "CropImageView";
+
     public static final int DEFAULT_MAX_BITMAP_SIZE = 0;
     public static final int DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION = 500;
     public static final float DEFAULT_MAX_SCALE_MULTIPLIER = 10.0f;
@@ -42,6 +55,8 @@ public class CropImageView extends TransformImageView {
     private final Matrix mTempMatrix = new Matrix();
 
     private float mTargetAspectRatio;
+    private boolean mPreviewAspectRatio;
+    private RetainedImageState mRestoredImageState;
     private float mMaxScaleMultiplier = DEFAULT_MAX_SCALE_MULTIPLIER;
 
     private CropBoundsChangeListener mCropBoundsChangeListener;
@@ -70,19 +85,121 @@ public class CropImageView extends TransformImageView {
      */
     public void cropAndSaveImage(@NonNull Bitmap.CompressFormat compressFormat, int compressQuality,
                                  @Nullable BitmapCropCallback cropCallback) {
+        final ImageState imageState = prepareImageState();
+
+        final CropParameters cropParameters = new CropParameters(
+                mMaxResultImageSizeX, mMaxResultImageSizeY,
+                compressFormat, compressQuality,
+                getImageInputPath(), getImageOutputPath(), getExifInfo(), getImageInfo());
+
+        new BitmapCropTask(getViewBitmap(), imageState, cropParameters, cropCallback)
+                .executeOnExecutor(TaskExecutors.getCpuExecutor(TaskExecutors.PRIORITY_INTERACTIVE));
+    }
+
+    /**
+     * Two-phase variant of {@link #cropAndSaveImage(Bitmap.CompressFormat, int, BitmapCropCallback)}.
+     * Image inside the crop bounds is drawn from the view bitmap at screen resolution and saved to the quick
+     * output right away, full resolution crop to the output Uri follows with background priority.
+     * If the quick crop can't be drawn it fails at once and the full crop runs with interactive priority.
+     */
+    public void cropAndSaveImage(@NonNull Bitmap.CompressFormat compressFormat, int compressQuality,
+                                 @NonNull Uri quickOutputUri, @NonNull BitmapCropCallback quickCropCallback,
+                                 @Nullable BitmapCropCallback cropCallback) {
+        final ImageState imageState = prepareImageState();
+
+        Bitmap quickBitmap = drawCropBounds();
+        if (quickBitmap != null) {
+            new QuickCropTask(quickBitmap, compressFormat, compressQuality, quickOutputUri.getPath(), quickCropCallback)
+                    .executeOnExecutor(TaskExecutors.getCpuExecutor(TaskExecutors.PRIORITY_INTERACTIVE));
+        } else {
+            quickCropCallback.onCropFailure(new IllegalStateException("Crop bounds could not be drawn"));
+        }
+
+        final CropParameters cropParameters = new CropParameters(
+                mMaxResultImageSizeX, mMaxResultImageSizeY,
+                compressFormat, compressQuality,
+                getImageInputPath(), getImageOutputPath(), getExifInfo(), getImageInfo());
+
+        new BitmapCropTask(getViewBitmap(), imageState, cropParameters, cropCallback)
+                .executeOnExecutor(TaskExecutors.getCpuExecutor(quickBitmap != null
+                        ? TaskExecutors.PRIORITY_BACKGROUND : TaskExecutors.PRIORITY_INTERACTIVE));
+    }
+
+    /**
+     * Same as {@link #cropAndSaveImage(Bitmap.CompressFormat, int, BitmapCropCallback)}, but only the crop
+     * geometry in source pixels is calculated, image is neither cropped nor saved.
+     */
+    public void calculateCropGeometry(@NonNull CropGeometryCallback geometryCallback) {
+        final ImageState imageState = prepareImageState();
+
+        final CropParameters cropParameters = new CropParameters(
+                mMaxResultImageSizeX, mMaxResultImageSizeY,
+                null, 0,
+                getImageInputPath(), getImageOutputPath(), getExifInfo(), getImageInfo());
+
+        new BitmapCropTask(getViewBitmap(), imageState, cropParameters, geometryCallback)
+                .executeOnExecutor(TaskExecutors.getCpuExecutor(TaskExecutors.PRIORITY_INTERACTIVE));
+    }
+
+    @NonNull
+    private ImageState prepareImageState() {
         cancelAllAnimations();
         setImageToWrapCropBounds(false);
 
-        final ImageState imageState = new ImageState(
+        return new ImageState(
                 mCropRect, RectUtils.trapToRect(mCurrentImageCorners),
                 getCurrentScale(), getCurrentAngle());
+    }
 
-        final CropParameters cropParameters = new CropParameters(
-                mMaxResultImageSizeX, mMaxResultImageSizeY,
-                compressFormat, compressQuality,
-                getImageInputPath(), getImageOutputPath(), getExifInfo());
+    /**
+     * Draws the image inside the crop bounds the way it is shown, so exif orientation, rotation and scale
+     * are applied by the drawable and the image matrix.
+     *
+     * @return - bitmap of the crop bounds size, null if there is nothing to draw or not enough memory
+     */
+    @Nullable
+    private Bitmap drawCropBounds() {
+        Drawable drawable = getDrawable();
+        Bitmap viewBitmap = getViewBitmap();
+        int width = Math.round(mCropRect.width());
+        int height = Math.round(mCropRect.height());
+        if (viewBitmap == null || viewBitmap.isRecycled() || width <= 0 || height <= 0) {
+            return null;
+        }
 
-        new BitmapCropTask(getViewBitmap(), imageState, cropParameters, cropCallback).execute();
+        Bitmap softwareCopy = null;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && viewBitmap.getConfig() == Bitmap.Config.HARDWARE) {
+                // Hardware bitmaps can't be drawn on a software canvas
+                softwareCopy = viewBitmap.copy(Bitmap.Config.ARGB_8888, false);
+                if (softwareCopy == null) {
+                    return null;
+                }
+                FastBitmapDrawable copyDrawable = new FastBitmapDrawable(softwareCopy, getExifInfo());
+                copyDrawable.setBounds(drawable.getBounds());
+                drawable = copyDrawable;
+            }
+
+            Bitmap bitmap = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+            if (bitmap != null) {
+                bitmap.eraseColor(Color.TRANSPARENT);
+            } else {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+
+            Canvas canvas = new Canvas(bitmap);
+            canvas.translate(-mCropRect.left, -mCropRect.top);
+            canvas.concat(mCurrentImageMatrix);
+            drawable.draw(canvas);
+            return bitmap;
+        } catch (OutOfMemoryError error) {
+            Log.e(TAG, "drawCropBounds: ", error);
+            return null;
+        } finally {
+            if (softwareCopy != null) {
+                softwareCopy.recycle();
+            }
+        }
     }
 
     /**
@@ -128,6 +245,7 @@ public class CropImageView extends TransformImageView {
      * @param targetAspectRatio - aspect ratio for image crop (e.g. 1.77(7) for 16:9)
      */
     public void setTargetAspectRatio(float targetAspectRatio) {
+        mPreviewAspectRatio = false;
         final Drawable drawable = getDrawable();
         if (drawable == null) {
             mTargetAspectRatio = targetAspectRatio;
@@ -145,6 +263,33 @@ public class CropImageView extends TransformImageView {
         }
     }
 
+    /**
+     * Crop bounds and their aspect ratio are retained along with the image.
+     */
+    @Nullable
+    @Override
+    public RetainedImageState retainImageState() {
+        RetainedImageState state = super.retainImageState();
+        if (state != null) {
+            state.setCropRect(new RectF(mCropRect), mTargetAspectRatio);
+        }
+        return state;
+    }
+
+    /**
+     * Image gets the same zoom, rotation and position relative to the crop bounds it had before,
+     * though the bounds themselves are laid out for the new view size.
+     */
+    @Override
+    public void restoreImageState(@NonNull RetainedImageState state) {
+        if (state.getCropRect() != null) {
+            mTargetAspectRatio = state.getTargetAspectRatio();
+            mPreviewAspectRatio = false;
+            mRestoredImageState = state;
+        }
+        super.restoreImageState(state);
+    }
+
     @Nullable
     public CropBoundsChangeListener getCropBoundsChangeListener() {
         return mCropBoundsChangeListener;
@@ -373,8 +518,10 @@ public class CropImageView extends TransformImageView {
         float drawableWidth = drawable.getIntrinsicWidth();
         float drawableHeight = drawable.getIntrinsicHeight();
 
-        if (mTargetAspectRatio == SOURCE_IMAGE_ASPECT_RATIO) {
+        // Source aspect ratio taken from a preview is recalculated once the final bitmap is laid out
+        if (mTargetAspectRatio == SOURCE_IMAGE_ASPECT_RATIO || mPreviewAspectRatio) {
             mTargetAspectRatio = drawableWidth / drawableHeight;
+            mPreviewAspectRatio = isPreviewShown();
         }
 
         int height = (int) (mThisWidth / mTargetAspectRatio);
@@ -389,6 +536,10 @@ public class CropImageView extends TransformImageView {
 
         calculateImageScaleBounds(drawableWidth, drawableHeight);
         setupInitialImagePosition(drawableWidth, drawableHeight);
+        if (mRestoredImageState != null) {
+            restoreImagePosition(mRestoredImageState);
+            mRestoredImageState = null;
+        }
 
         if (mCropBoundsChangeListener != null) {
             mCropBoundsChangeListener.onCropAspectRatioChanged(mTargetAspectRatio);
@@ -399,6 +550,24 @@ public class CropImageView extends TransformImageView {
         }
     }
 
+    /**
+     * Retained crop bounds have the same aspect ratio as the current ones, so the retained matrix
+     * is moved and scaled along with them.
+     */
+    private void restoreImagePosition(@NonNull RetainedImageState state) {
+        RectF retainedCropRect = state.getCropRect();
+        if (retainedCropRect == null || retainedCropRect.isEmpty()) {
+            return;
+        }
+        float scale = mCropRect.width() / retainedCropRect.width();
+
+        mTempMatrix.set(state.getImageMatrix());
+        mTempMatrix.postTranslate(-retainedCropRect.left, -retainedCropRect.top);
+        mTempMatrix.postScale(scale, scale);
+        mTempMatrix.postTranslate(mCropRect.left, mCropRect.top);
+        setImageMatrix(mTempMatrix);
+    }
+
     /**
      * This method checks whether current image fills the crop bounds.
      */
@@ -2,10 +2,12 @@ package com.yalantis.ucrop.view;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.support.annotation.IntDef;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -14,10 +16,23 @@ import android.util.Log;
 import android.widget.ImageView;
 
 import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.callback.ImageInfoCallback;
+import com.yalantis.ucrop.callback.PreviewBitmapLoadCallback;
 import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageInfo;
+import com.yalantis.ucrop.model.RetainedImageState;
+import com.yalantis.ucrop.task.BitmapLoadTask;
+import com.yalantis.ucrop.task.TaskExecutors;
+import com.yalantis.ucrop.task.TaskFuture;
 import com.yalantis.ucrop.util.BitmapLoadUtils;
+import com.yalantis.ucrop.util.BitmapMemoryCache;
 import com.yalantis.ucrop.util.FastBitmapDrawable;
+import com.yalantis.ucrop.util.ImagePrefetcher;
 import com.yalantis.ucrop.util.RectUtils;
+import com.yalantis.ucrop.util.TiledImageRenderer;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 
 /**
  * Created by Oleksii Shliama (https://github.com/shliama).
@@ -29,6 +44,19 @@ public class TransformImageView extends ImageView {
 
     private static final String TAG = "TransformImageView";
 
+    /**
+     * Preview is always decoded as ARGB_8888.
+     */
+    public static final int PREVIEW_QUALITY_FULL = 0;
+    /**
+     * Preview is decoded as HARDWARE bitmap on Oreo and above, so pixels are kept out of the heap,
+     * and as RGB_565 for opaque images on older versions. Cropped image is decoded from the source
+     * file, so its quality is not affected.
+     */
+    public static final int PREVIEW_QUALITY_LOW_MEMORY = 1;
+
+    public static final int DEFAULT_PREVIEW_QUALITY = PREVIEW_QUALITY_FULL;
+
     private static final int RECT_CORNER_POINTS_COORDS = 8;
     private static final int RECT_CENTER_POINT_COORDS = 2;
     private static final int MATRIX_VALUES_COUNT = 9;
@@ -48,11 +76,23 @@ public class TransformImageView extends ImageView {
 
     protected boolean mBitmapDecoded = false;
     protected boolean mBitmapLaidOut = false;
+    protected boolean mPreviewShown = false;
 
     private int mMaxBitmapSize = 0;
+    private int mPreviewQuality = DEFAULT_PREVIEW_QUALITY;
+    private boolean mTiledZoomEnabled = true;
 
     private String mImageInputPath, mImageOutputPath;
     private ExifInfo mExifInfo;
+    private ImageInfo mImageInfo;
+    private TiledImageRenderer mTiledImageRenderer;
+
+    private Uri mImageUri, mImageOutputUri;
+    private TaskFuture<String> mPendingKeyFuture;
+    private BitmapLoadTask mBitmapLoadTask;
+    private BitmapLoadCallback mPendingLoadCallback;
+    private String mPendingLoadKey;
+    private boolean mImageLoadCancelled;
 
     /**
      * Interface for rotation and scale change notifying.
@@ -69,6 +109,19 @@ public class TransformImageView extends ImageView {
 
     }
 
+    /**
+     * Optional extension of {@link TransformImageListener}, notified when a preview is laid out
+     * before the full image. {@link TransformImageListener#onLoadComplete()} still follows.
+     */
+    public interface PreviewTransformImageListener extends TransformImageListener {
+
+        void onPreviewLoadComplete();
+
+    }
+
+    private interface ImageLoadCallback extends PreviewBitmapLoadCallback, ImageInfoCallback {
+    }
+
     public TransformImageView(Context context) {
         this(context, null);
     }
@@ -105,6 +158,33 @@ public class TransformImageView extends ImageView {
         mMaxBitmapSize = maxBitmapSize;
     }
 
+    /**
+     * Be sure to call it before {@link #setImageURI(Uri)} or other image setters.
+     *
+     * @param previewQuality - {@link #PREVIEW_QUALITY_FULL} or {@link #PREVIEW_QUALITY_LOW_MEMORY}
+     */
+    public void setPreviewQuality(@PreviewQuality int previewQuality) {
+        mPreviewQuality = previewQuality;
+    }
+
+    @PreviewQuality
+    public int getPreviewQuality() {
+        return mPreviewQuality;
+    }
+
+    /**
+     * When enabled, and the source image is larger than the decoded bitmap, visible parts of the image
+     * are decoded from the source file in tiles as it is zoomed in, so deep zoom stays sharp.
+     * Be sure to call it before {@link #setImageURI(Uri)} or other image setters.
+     */
+    public void setTiledZoomEnabled(boolean tiledZoomEnabled) {
+        mTiledZoomEnabled = tiledZoomEnabled;
+    }
+
+    public boolean isTiledZoomEnabled() {
+        return mTiledZoomEnabled;
+    }
+
     public int getMaxBitmapSize() {
         if (mMaxBitmapSize <= 0) {
             mMaxBitmapSize = BitmapLoadUtils.calculateMaxBitmapSize(getContext());
@@ -117,6 +197,58 @@ public class TransformImageView extends ImageView {
         setImageDrawable(new FastBitmapDrawable(bitmap));
     }
 
+    /**
+     * Shown bitmap is referenced in {@link BitmapMemoryCache}. Bitmap of the replaced {@link FastBitmapDrawable}
+     * (e.g. a preview replaced by the final image) is released, so once it is neither cached nor shown
+     * anywhere else it is returned to {@link com.yalantis.ucrop.util.BitmapPool} and the next decode can reuse its memory.
+     */
+    @Override
+    public void setImageDrawable(@Nullable Drawable drawable) {
+        BitmapMemoryCache memoryCache = BitmapMemoryCache.getInstance(getContext());
+        Bitmap previousBitmap = getViewBitmap();
+        super.setImageDrawable(drawable);
+
+        Bitmap bitmap = getViewBitmap();
+        if (bitmap != previousBitmap) {
+            if (bitmap != null) {
+                memoryCache.acquire(bitmap);
+            }
+            memoryCache.release(previousBitmap);
+        }
+    }
+
+    /**
+     * Load cancelled when the view was detached is started over, and tiles are set up again,
+     * so a view that is reattached (e.g. by a ViewPager or a fragment transition) shows its image.
+     */
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        try {
+            resumeImageLoad();
+        } catch (Exception e) {
+            Log.e(TAG, "onAttachedToWindow: resumeImageLoad", e);
+            if (mTransformImageListener != null) {
+                mTransformImageListener.onLoadFailure(e);
+            }
+        }
+        Bitmap bitmap = getViewBitmap();
+        if (bitmap != null && mTiledImageRenderer == null && !mPreviewShown && mImageInputPath != null) {
+            setupTiledImageRenderer(bitmap);
+        }
+    }
+
+    /**
+     * Load in progress and tile decoding are stopped while the view is detached, shown image is kept,
+     * see {@link #onAttachedToWindow()}.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelImageLoad();
+        releaseTiledImageRenderer();
+    }
+
     public String getImageInputPath() {
         return mImageInputPath;
     }
@@ -129,36 +261,197 @@ public class TransformImageView extends ImageView {
         return mExifInfo;
     }
 
+    public ImageInfo getImageInfo() {
+        return mImageInfo;
+    }
+
+    /**
+     * @return - true while a low resolution preview is shown and the final bitmap is still loading.
+     */
+    public boolean isPreviewShown() {
+        return mPreviewShown;
+    }
+
     /**
      * This method takes an Uri as a parameter, then calls method to decode it into Bitmap with specified size.
+     * Image that was decoded before with the same size is taken from {@link BitmapMemoryCache} without copy or decode,
+     * image that is being prefetched is delivered once {@link ImagePrefetcher} has loaded it.
      *
      * @param imageUri - image Uri
      * @throws Exception - can throw exception if having problems with decoding Uri or OOM.
      */
-    public void setImageUri(@NonNull Uri imageUri, @Nullable Uri outputUri) throws Exception {
-        int maxBitmapSize = getMaxBitmapSize();
+    public void setImageUri(@NonNull final Uri imageUri, @Nullable final Uri outputUri) throws Exception {
+        final int maxBitmapSize = getMaxBitmapSize();
+        cancelImageLoad();
+        releaseTiledImageRenderer();
+        mImageUri = imageUri;
+        mImageOutputUri = outputUri;
+        mImageLoadCancelled = false;
+
+        // Key needs a content provider query or a file stat, the cache is looked up once it is built
+        final TaskFuture<String> keyFuture = BitmapMemoryCache.createKeyAsync(getContext(), imageUri,
+                maxBitmapSize, mPreviewQuality, TaskExecutors.PRIORITY_INTERACTIVE);
+        mPendingKeyFuture = keyFuture;
+        keyFuture.addListener(new TaskFuture.Listener<String>() {
+            @Override
+            public void onSuccess(@NonNull String cacheKey) {
+                if (mPendingKeyFuture == keyFuture) {
+                    mPendingKeyFuture = null;
+                    loadImage(imageUri, outputUri, maxBitmapSize, cacheKey);
+                }
+            }
 
-        BitmapLoadUtils.decodeBitmapInBackground(getContext(), imageUri, outputUri, maxBitmapSize, maxBitmapSize,
-                new BitmapLoadCallback() {
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                // Cancelled or replaced by another image otherwise
+                if (mPendingKeyFuture == keyFuture) {
+                    mPendingKeyFuture = null;
+                    Log.e(TAG, "onFailure: setImageUri", throwable);
+                    if (mTransformImageListener != null) {
+                        mTransformImageListener.onLoadFailure(throwable instanceof Exception
+                                ? (Exception) throwable : new Exception(throwable));
+                    }
+                }
+            }
+        }, TaskFuture.mainThreadExecutor());
+    }
 
-                    @Override
-                    public void onBitmapLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull String imageInputPath, @Nullable String imageOutputPath) {
-                        mImageInputPath = imageInputPath;
-                        mImageOutputPath = imageOutputPath;
-                        mExifInfo = exifInfo;
+    private void loadImage(@NonNull Uri imageUri, @Nullable Uri outputUri, int maxBitmapSize, @NonNull final String cacheKey) {
+        final BitmapMemoryCache memoryCache = BitmapMemoryCache.getInstance(getContext());
 
-                        mBitmapDecoded = true;
-                        setImageBitmap(bitmap);
-                    }
+        ImageLoadCallback loadCallback = new ImageLoadCallback() {
 
-                    @Override
-                    public void onFailure(@NonNull Exception bitmapWorkerException) {
-                        Log.e(TAG, "onFailure: setImageUri", bitmapWorkerException);
-                        if (mTransformImageListener != null) {
-                            mTransformImageListener.onLoadFailure(bitmapWorkerException);
-                        }
-                    }
-                });
+            private ImageInfo mLoadedImageInfo = new ImageInfo();
+
+            @Override
+            public void onPreviewLoaded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo) {
+                if (mBitmapDecoded && !mPreviewShown) {
+                    return;
+                }
+                mPreviewShown = true;
+                mBitmapDecoded = true;
+                mBitmapLaidOut = false;
+                setImageDrawable(new FastBitmapDrawable(preview, exifInfo));
+                requestLayout();
+            }
+
+            @Override
+            public void onImageInfoLoaded(@NonNull ImageInfo imageInfo) {
+                mLoadedImageInfo = imageInfo;
+            }
+
+            @Override
+            public void onBitmapLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo,
+                                       @NonNull String imageInputPath, @Nullable String imageOutputPath) {
+                memoryCache.put(cacheKey, bitmap, exifInfo, mLoadedImageInfo, imageInputPath);
+                clearPendingLoad();
+                showLoadedBitmap(bitmap, exifInfo, mLoadedImageInfo, imageInputPath, imageOutputPath);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception bitmapWorkerException) {
+                Log.e(TAG, "onFailure: setImageUri", bitmapWorkerException);
+                clearPendingLoad();
+                if (mTransformImageListener != null) {
+                    mTransformImageListener.onLoadFailure(bitmapWorkerException);
+                }
+            }
+        };
+
+        BitmapMemoryCache.Entry cached = memoryCache.get(cacheKey);
+        if (cached != null) {
+            Log.d(TAG, "setImageUri: cached bitmap is used for " + imageUri);
+            loadCallback.onImageInfoLoaded(cached.getImageInfo());
+            loadCallback.onBitmapLoaded(cached.getBitmap(), cached.getExifInfo(),
+                    cached.getImageInputPath(), (outputUri == null) ? null : outputUri.getPath());
+            return;
+        }
+        mPendingLoadKey = cacheKey;
+        mPendingLoadCallback = loadCallback;
+        if (ImagePrefetcher.attach(cacheKey, loadCallback, (outputUri == null) ? null : outputUri.getPath())) {
+            Log.d(TAG, "setImageUri: waiting for prefetch of " + imageUri);
+            return;
+        }
+
+        mBitmapLoadTask = BitmapLoadUtils.decodeBitmapInBackground(getContext(), imageUri, outputUri,
+                maxBitmapSize, maxBitmapSize, mPreviewQuality, loadCallback);
+    }
+
+    /**
+     * @return - loaded image and its current transform to be passed to {@link #restoreImageState(RetainedImageState)}
+     * of the view that replaces this one after a configuration change, null if the image is not loaded yet
+     */
+    @Nullable
+    public RetainedImageState retainImageState() {
+        Bitmap bitmap = getViewBitmap();
+        if (bitmap == null || mPreviewShown || mImageUri == null || mImageInputPath == null) {
+            return null;
+        }
+        // This view releases the bitmap when it is detached, which may happen after the new view shows it,
+        // so the state holds its own reference until it is restored or released
+        BitmapMemoryCache.getInstance(getContext()).acquire(bitmap);
+        return new RetainedImageState(mImageUri, mImageOutputUri, bitmap, mExifInfo, mImageInfo,
+                mImageInputPath, mImageOutputPath, new Matrix(mCurrentImageMatrix));
+    }
+
+    /**
+     * Shows the image retained by {@link #retainImageState()} instead of loading it with
+     * {@link #setImageUri(Uri, Uri)}, nothing is copied, downloaded or decoded again.
+     */
+    public void restoreImageState(@NonNull RetainedImageState state) {
+        cancelImageLoad();
+        mImageUri = state.getImageUri();
+        mImageOutputUri = state.getImageOutputUri();
+        mImageLoadCancelled = false;
+
+        showLoadedBitmap(state.getBitmap(), state.getExifInfo(), state.getImageInfo(),
+                state.getImageInputPath(), state.getImageOutputPath());
+        releaseImageState(state);
+    }
+
+    /**
+     * Drops the bitmap reference held by a state returned from {@link #retainImageState()}
+     * that is not going to be restored, so the bitmap can be reused once nothing shows it.
+     */
+    public void releaseImageState(@NonNull RetainedImageState state) {
+        if (state.markReleased()) {
+            BitmapMemoryCache.getInstance(getContext()).release(state.getBitmap());
+        }
+    }
+
+    /**
+     * Stops loading of the image set with {@link #setImageUri(Uri, Uri)}, if it is still in progress.
+     * It is called when the view is detached (the load is resumed once it is attached again), and should be
+     * called when the screen is stopped.
+     *
+     * @return - true if a load was cancelled, it can be started over with {@link #resumeImageLoad()}
+     */
+    public boolean cancelImageLoad() {
+        if (mPendingKeyFuture == null && mPendingLoadCallback == null) {
+            return false;
+        }
+        if (mPendingKeyFuture != null) {
+            mPendingKeyFuture.cancel(false);
+        }
+        if (mBitmapLoadTask != null) {
+            mBitmapLoadTask.cancelLoad();
+        }
+        if (mPendingLoadCallback != null) {
+            ImagePrefetcher.detach(mPendingLoadKey, mPendingLoadCallback);
+        }
+        clearPendingLoad();
+        mImageLoadCancelled = true;
+        return true;
+    }
+
+    /**
+     * Starts the load cancelled by {@link #cancelImageLoad()} over. Downloaded part of a remote
+     * image is reused if the server supports it.
+     */
+    public void resumeImageLoad() throws Exception {
+        if (mImageLoadCancelled && mImageUri != null) {
+            setImageUri(mImageUri, mImageOutputUri);
+        }
     }
 
     /**
@@ -199,6 +492,10 @@ public class TransformImageView extends ImageView {
         updateCurrentImagePoints();
     }
 
+    /**
+     * @return - bitmap as it was decoded, exif orientation of the image ({@link #getExifInfo()})
+     * is not applied to it but only when drawing.
+     */
     @Nullable
     public Bitmap getViewBitmap() {
         if (getDrawable() == null || !(getDrawable() instanceof FastBitmapDrawable)) {
@@ -259,6 +556,22 @@ public class TransformImageView extends ImageView {
         setScaleType(ScaleType.MATRIX);
     }
 
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mTiledImageRenderer != null && mBitmapLaidOut && !mPreviewShown) {
+            Drawable drawable = getDrawable();
+            if (drawable == null) {
+                return;
+            }
+            int saveCount = canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            mTiledImageRenderer.draw(canvas, mCurrentImageMatrix,
+                    drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), mThisWidth, mThisHeight);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
@@ -297,7 +610,13 @@ public class TransformImageView extends ImageView {
         mBitmapLaidOut = true;
 
         if (mTransformImageListener != null) {
-            mTransformImageListener.onLoadComplete();
+            if (mPreviewShown) {
+                if (mTransformImageListener instanceof PreviewTransformImageListener) {
+                    ((PreviewTransformImageListener) mTransformImageListener).onPreviewLoadComplete();
+                }
+            } else {
+                mTransformImageListener.onLoadComplete();
+            }
         }
     }
 
@@ -326,6 +645,43 @@ public class TransformImageView extends ImageView {
         Log.d(TAG, logPrefix + ": matrix: { x: " + x + ", y: " + y + ", scale: " + rScale + ", angle: " + rAngle + " }");
     }
 
+    private void showLoadedBitmap(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull ImageInfo imageInfo,
+                                  @NonNull String imageInputPath, @Nullable String imageOutputPath) {
+        mImageInputPath = imageInputPath;
+        mImageOutputPath = imageOutputPath;
+        mExifInfo = exifInfo;
+        mImageInfo = imageInfo;
+
+        mPreviewShown = false;
+        mBitmapDecoded = true;
+        mBitmapLaidOut = false;
+        setImageDrawable(new FastBitmapDrawable(bitmap, exifInfo));
+        requestLayout();
+
+        releaseTiledImageRenderer();
+        setupTiledImageRenderer(bitmap);
+    }
+
+    private void setupTiledImageRenderer(@NonNull Bitmap bitmap) {
+        if (mTiledZoomEnabled && mImageInfo.hasSize() && bitmap.getWidth() < mImageInfo.getWidth()) {
+            mTiledImageRenderer = new TiledImageRenderer(this, mImageInputPath, mImageInfo, mExifInfo, bitmap.getWidth());
+        }
+    }
+
+    private void clearPendingLoad() {
+        mPendingKeyFuture = null;
+        mBitmapLoadTask = null;
+        mPendingLoadCallback = null;
+        mPendingLoadKey = null;
+    }
+
+    private void releaseTiledImageRenderer() {
+        if (mTiledImageRenderer != null) {
+            mTiledImageRenderer.release();
+            mTiledImageRenderer = null;
+        }
+    }
+
     /**
      * This method updates current image corners and center points that are stored in
      * {@link #mCurrentImageCorners} and {@link #mCurrentImageCenter} arrays.
@@ -336,4 +692,9 @@ public class TransformImageView extends ImageView {
         mCurrentImageMatrix.mapPoints(mCurrentImageCenter, mInitialImageCenter);
     }
 
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PREVIEW_QUALITY_FULL, PREVIEW_QUALITY_LOW_MEMORY})
+    public @interface PreviewQuality {
+    }
+
 }
@@ -0,0 +1,176 @@
+package com.yalantis.ucrop.task;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CropAdmissionTest {
+
+    // Long enough for a thread that is not blocked to finish
+    private static final long WAIT_MILLIS = 200;
+
+    @Test
+    public void admitsUpToMaxConcurrentJobs() {
+        CropAdmission admission = new CropAdmission(1000, 3);
+
+        assertTrue(admission.admit(100));
+        assertTrue(admission.admit(100));
+        assertTrue(admission.admit(100));
+        assertEquals(3, admission.getRunningJobs());
+    }
+
+    @Test
+    public void blocksOverMaxConcurrentJobsUntilRelease() throws InterruptedException {
+        CropAdmission admission = new CropAdmission(1000, 2);
+        admission.admit(100);
+        admission.admit(100);
+
+        AdmitThread thread = new AdmitThread(admission, 100);
+        thread.start();
+        assertTrue(thread.isBlocked());
+
+        admission.release(100);
+        assertTrue(thread.isAdmitted());
+        assertEquals(2, admission.getRunningJobs());
+    }
+
+    @Test
+    public void blocksOverMemoryBudgetUntilRelease() throws InterruptedException {
+        CropAdmission admission = new CropAdmission(1000, 4);
+        admission.admit(600);
+
+        AdmitThread thread = new AdmitThread(admission, 500);
+        thread.start();
+        assertTrue(thread.isBlocked());
+
+        admission.release(600);
+        assertTrue(thread.isAdmitted());
+    }
+
+    @Test
+    public void admitsJobWithinRestOfMemoryBudget() {
+        CropAdmission admission = new CropAdmission(1000, 4);
+
+        assertTrue(admission.admit(600));
+        assertTrue(admission.admit(400));
+    }
+
+    @Test
+    public void admitsOversizedJobWhenNothingElseRuns() {
+        CropAdmission admission = new CropAdmission(1000, 4);
+
+        assertTrue(admission.admit(5000));
+    }
+
+    @Test
+    public void cancelUnblocksWaitingJob() throws InterruptedException {
+        CropAdmission admission = new CropAdmission(1000, 1);
+        admission.admit(100);
+
+        AdmitThread thread = new AdmitThread(admission, 100);
+        thread.start();
+        assertTrue(thread.isBlocked());
+
+        admission.cancel();
+        thread.join(WAIT_MILLIS);
+        assertFalse(thread.isAlive());
+        assertFalse(thread.mAdmitted.get());
+        assertEquals(1, admission.getRunningJobs());
+    }
+
+    @Test
+    public void admitsNothingOnceCancelled() {
+        CropAdmission admission = new CropAdmission(1000, 4);
+        admission.cancel();
+
+        assertFalse(admission.admit(100));
+        assertEquals(0, admission.getRunningJobs());
+    }
+
+    @Test
+    public void awaitIdleReturnsOnceAllJobsAreReleased() throws InterruptedException {
+        final CropAdmission admission = new CropAdmission(1000, 4);
+        admission.admit(100);
+        admission.admit(100);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                admission.awaitIdle();
+            }
+        });
+        thread.start();
+
+        admission.release(100);
+        thread.join(WAIT_MILLIS);
+        assertTrue(thread.isAlive());
+
+        admission.release(100);
+        thread.join(WAIT_MILLIS);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void tracksMaxRunningJobs() {
+        CropAdmission admission = new CropAdmission(1000, 4);
+        admission.admit(100);
+        admission.admit(100);
+        admission.admit(100);
+        admission.release(100);
+        admission.release(100);
+        admission.admit(100);
+
+        assertEquals(2, admission.getRunningJobs());
+        assertEquals(3, admission.getMaxRunningJobs());
+    }
+
+    @Test
+    public void estimatesSourceAndItsCopy() {
+        assertEquals(2 * 1000 * 3, CropAdmission.estimatePeakMemory(1000, 1, 0));
+    }
+
+    @Test
+    public void estimatesResizedCopy() {
+        assertEquals((1000 + 250) * 3, CropAdmission.estimatePeakMemory(1000, 0.5f, 0));
+    }
+
+    @Test
+    public void estimatesBoundingBoxOfRotatedCopy() {
+        // Bounding box of a square rotated by 45 degrees has twice its area
+        assertEquals((1000 + 2000) * 3, CropAdmission.estimatePeakMemory(1000, 1, 45), 3);
+        assertEquals(2 * 1000 * 3, CropAdmission.estimatePeakMemory(1000, 1, 90), 3);
+    }
+
+    private static class AdmitThread extends Thread {
+
+        private final CropAdmission mAdmission;
+        private final long mEstimatedMemory;
+        private final AtomicBoolean mAdmitted = new AtomicBoolean();
+
+        AdmitThread(CropAdmission admission, long estimatedMemory) {
+            mAdmission = admission;
+            mEstimatedMemory = estimatedMemory;
+        }
+
+        @Override
+        public void run() {
+            mAdmitted.set(mAdmission.admit(mEstimatedMemory));
+        }
+
+        boolean isBlocked() throws InterruptedException {
+            join(WAIT_MILLIS);
+            return isAlive();
+        }
+
+        boolean isAdmitted() throws InterruptedException {
+            join(WAIT_MILLIS);
+            return !isAlive() && mAdmitted.get();
+        }
+
+    }
+
+}
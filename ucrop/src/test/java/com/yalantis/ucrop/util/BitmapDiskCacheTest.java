@@ -0,0 +1,218 @@
+package com.yalantis.ucrop.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.yalantis.ucrop.model.ImageInfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapDiskCacheTest {
+
+    private static final String KEY = "content://media/external/images/media/1|4000|1";
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void hasNothingForUnknownKey() throws IOException {
+        BitmapDiskCache cache = new BitmapDiskCache(mTemporaryFolder.newFolder(), Long.MAX_VALUE);
+
+        assertNull(cache.get(KEY, options()));
+    }
+
+    @Test
+    public void keepsEntryOfAnotherKeyWithSameFileName() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        BitmapDiskCache cache = new BitmapDiskCache(directory, Long.MAX_VALUE);
+        File imageFile = writeEntry(directory, KEY, "another key", 0);
+
+        assertNull(cache.get(KEY, options()));
+        assertTrue(imageFile.exists());
+        assertTrue(metaFile(imageFile).exists());
+    }
+
+    @Test
+    public void removesEntryWithBrokenMeta() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        BitmapDiskCache cache = new BitmapDiskCache(directory, Long.MAX_VALUE);
+        File imageFile = writeEntry(directory, KEY, KEY, 0);
+        Properties meta = BitmapDiskCache.createMeta(KEY, 1000, 750, 5000000, sourceInfo());
+        meta.setProperty("width", "not a number");
+        writeProperties(metaFile(imageFile), meta);
+
+        assertNull(cache.get(KEY, options()));
+        assertFalse(imageFile.exists());
+        assertFalse(metaFile(imageFile).exists());
+    }
+
+    @Test
+    public void removesEntryThatCannotBeDecoded() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        BitmapDiskCache cache = new BitmapDiskCache(directory, Long.MAX_VALUE);
+        // Image file holds no JPEG, decoder returns null
+        File imageFile = writeEntry(directory, KEY, KEY, 0);
+
+        assertNull(cache.get(KEY, options()));
+        assertFalse(imageFile.exists());
+        assertFalse(metaFile(imageFile).exists());
+    }
+
+    @Test
+    public void removeDeletesImageAndMeta() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        BitmapDiskCache cache = new BitmapDiskCache(directory, Long.MAX_VALUE);
+        File imageFile = writeEntry(directory, KEY, KEY, 0);
+
+        cache.remove(KEY);
+
+        assertFalse(imageFile.exists());
+        assertFalse(metaFile(imageFile).exists());
+    }
+
+    @Test
+    public void keepsEntriesWithinMaxSize() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        File first = writeEntry(directory, "first", "first", 1000);
+        File second = writeEntry(directory, "second", "second", 1000);
+
+        new BitmapDiskCache(directory, directorySize(directory)).trimToSize();
+
+        assertTrue(first.exists());
+        assertTrue(second.exists());
+    }
+
+    @Test
+    public void deletesLeastRecentlyUsedEntriesOverMaxSize() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        long now = System.currentTimeMillis();
+        File oldest = writeEntry(directory, "oldest", "oldest", 1000);
+        File recent = writeEntry(directory, "recent", "recent", 1000);
+        File older = writeEntry(directory, "older", "older", 1000);
+        touch(oldest, now - 3 * HOUR);
+        touch(older, now - 2 * HOUR);
+        touch(recent, now - HOUR);
+
+        long entrySize = oldest.length() + metaFile(oldest).length();
+        new BitmapDiskCache(directory, directorySize(directory) - entrySize - 1).trimToSize();
+
+        assertFalse(oldest.exists());
+        assertFalse(metaFile(oldest).exists());
+        assertFalse(older.exists());
+        assertFalse(metaFile(older).exists());
+        assertTrue(recent.exists());
+        assertTrue(metaFile(recent).exists());
+    }
+
+    @Test
+    public void deletesOnlyExpiredTemporaryFiles() throws IOException {
+        File directory = mTemporaryFolder.newFolder();
+        long now = System.currentTimeMillis();
+        File expired = writeFile(new File(directory, "expired.tmp"), 1000);
+        File written = writeFile(new File(directory, "written.tmp"), 1000);
+        File entry = writeEntry(directory, "entry", "entry", 1000);
+        touch(expired, now - 3 * HOUR);
+        touch(written, now - 2 * HOUR);
+        touch(entry, now - HOUR);
+
+        new BitmapDiskCache(directory, directorySize(directory) - 1).trimToSize();
+
+        assertFalse(expired.exists());
+        assertTrue(written.exists());
+        assertTrue(entry.exists());
+    }
+
+    @Test
+    public void createsMetaOfEntry() {
+        ImageInfo sourceInfo = sourceInfo();
+
+        Properties meta = BitmapDiskCache.createMeta(KEY, 1000, 750, 5000000, sourceInfo);
+
+        assertEquals(KEY, meta.getProperty("key"));
+        assertEquals("1000", meta.getProperty("width"));
+        assertEquals("750", meta.getProperty("height"));
+        assertEquals("5000000", meta.getProperty("sourceLength"));
+        assertEquals("4000", meta.getProperty("sourceWidth"));
+        assertEquals("3000", meta.getProperty("sourceHeight"));
+        assertEquals("6", meta.getProperty("exifOrientation"));
+    }
+
+    /**
+     * @param fileKey - key the entry is stored under
+     * @param metaKey - key written into its meta
+     * @return - image file of the entry
+     */
+    private static File writeEntry(File directory, String fileKey, String metaKey, int imageSize) throws IOException {
+        String fileName = FileUtils.md5(fileKey);
+        File imageFile = writeFile(new File(directory, fileName + ".jpg"), imageSize);
+        writeProperties(metaFile(imageFile), BitmapDiskCache.createMeta(metaKey, 1000, 750, 5000000, sourceInfo()));
+        return imageFile;
+    }
+
+    private static File writeFile(File file, int size) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(new byte[size]);
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+
+    private static void writeProperties(File file, Properties properties) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            properties.store(stream, null);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static File metaFile(File imageFile) {
+        String name = imageFile.getName();
+        return new File(imageFile.getParentFile(), name.substring(0, name.length() - ".jpg".length()) + ".meta");
+    }
+
+    private static void touch(File imageFile, long time) {
+        assertTrue(imageFile.setLastModified(time));
+        if (imageFile.getName().endsWith(".jpg")) {
+            assertTrue(metaFile(imageFile).setLastModified(time));
+        }
+    }
+
+    private static long directorySize(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        for (File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static ImageInfo sourceInfo() {
+        ImageInfo imageInfo = new ImageInfo();
+        imageInfo.setSize(4000, 3000);
+        imageInfo.setExifOrientation(6);
+        return imageInfo;
+    }
+
+    private static BitmapFactory.Options options() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        return options;
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.yalantis.ucrop.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapLoadUtilsTest {
+
+    // 1000x750 ARGB_8888, the size 4000x3000 image is decoded to with inSampleSize 4
+    private static final long SAMPLED_BYTES = 1000 * 750 * 4;
+    // 2000x1500 sampled bitmap and the 1500x1125 one it is scaled to are both allocated
+    private static final long SCALED_BYTES = 2000 * 1500 * 4 + 1500 * 1125 * 4;
+
+    @Test
+    public void samplesDownToRequiredSize() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 1000, 1000, Long.MAX_VALUE);
+
+        assertEquals(4, options.inSampleSize);
+        assertNotScaled(options);
+    }
+
+    @Test
+    public void keepsSampleSizeWhenDecodeTakesWholeBudget() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 1000, 1000, SAMPLED_BYTES);
+
+        assertEquals(4, options.inSampleSize);
+        assertNotScaled(options);
+    }
+
+    @Test
+    public void shrinksWhenDecodeIsOneByteOverBudget() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 1000, 1000, SAMPLED_BYTES - 1);
+
+        assertEquals(8, options.inSampleSize);
+        assertScaled(500, 486, options);
+    }
+
+    @Test
+    public void countsBytesPerPixelOfPreferredConfig() {
+        BitmapFactory.Options rgb565 = options(Bitmap.Config.RGB_565);
+        BitmapFactory.Options argb8888 = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(rgb565, 4000, 3000, 1000, 1000, SAMPLED_BYTES / 2);
+        BitmapLoadUtils.planDecode(argb8888, 4000, 3000, 1000, 1000, SAMPLED_BYTES / 2);
+
+        assertEquals(4, rgb565.inSampleSize);
+        assertNotScaled(rgb565);
+        assertEquals(8, argb8888.inSampleSize);
+        assertScaled(500, 408, argb8888);
+    }
+
+    @Test
+    public void scalesSampledBitmapToRequiredSize() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 1500, 1500, Long.MAX_VALUE);
+
+        assertEquals(2, options.inSampleSize);
+        assertScaled(2000, 1500, options);
+    }
+
+    @Test
+    public void countsBothBitmapsWhileScaling() {
+        BitmapFactory.Options atBudget = options(Bitmap.Config.ARGB_8888);
+        BitmapFactory.Options overBudget = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(atBudget, 4000, 3000, 1500, 1500, SCALED_BYTES);
+        BitmapLoadUtils.planDecode(overBudget, 4000, 3000, 1500, 1500, SCALED_BYTES - 1);
+
+        assertEquals(2, atBudget.inSampleSize);
+        assertScaled(2000, 1500, atBudget);
+        assertEquals(2, overBudget.inSampleSize);
+        assertScaled(2000, 1350, overBudget);
+    }
+
+    @Test
+    public void doesNotUpscaleSmallImage() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 800, 600, 1000, 1000, Long.MAX_VALUE);
+
+        assertEquals(1, options.inSampleSize);
+        assertNotScaled(options);
+    }
+
+    @Test
+    public void resetsScalingOfReusedOptions() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 1500, 1500, Long.MAX_VALUE);
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 1000, 1000, Long.MAX_VALUE);
+
+        assertEquals(4, options.inSampleSize);
+        assertNotScaled(options);
+    }
+
+    @Test
+    public void stopsAtSinglePixelWhenNothingFits() {
+        BitmapFactory.Options options = options(Bitmap.Config.ARGB_8888);
+
+        BitmapLoadUtils.planDecode(options, 4000, 3000, 4000, 3000, 1);
+
+        assertEquals(4096, options.inSampleSize);
+        assertNotScaled(options);
+    }
+
+    private static BitmapFactory.Options options(Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        return options;
+    }
+
+    private static void assertScaled(int density, int targetDensity, BitmapFactory.Options options) {
+        assertTrue(options.inScaled);
+        assertEquals(density, options.inDensity);
+        assertEquals(targetDensity, options.inTargetDensity);
+    }
+
+    private static void assertNotScaled(BitmapFactory.Options options) {
+        assertFalse(options.inScaled);
+        assertEquals(0, options.inDensity);
+        assertEquals(0, options.inTargetDensity);
+    }
+
+}
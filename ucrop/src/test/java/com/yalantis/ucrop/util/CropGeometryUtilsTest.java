@@ -0,0 +1,91 @@
+package com.yalantis.ucrop.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CropGeometryUtilsTest {
+
+    private static final float DELTA = 0.001f;
+
+    @Test
+    public void doesNotResizeWithoutMaxSize() {
+        assertEquals(1, CropGeometryUtils.getResizeScale(4000, 3000, 0, 0), DELTA);
+        assertEquals(1, CropGeometryUtils.getResizeScale(4000, 3000, 1000, 0), DELTA);
+    }
+
+    @Test
+    public void doesNotUpscaleCropThatFits() {
+        assertEquals(1, CropGeometryUtils.getResizeScale(800, 600, 1000, 1000), DELTA);
+        assertEquals(1, CropGeometryUtils.getResizeScale(1000, 1000, 1000, 1000), DELTA);
+    }
+
+    @Test
+    public void fitsCropByTheTighterSide() {
+        assertEquals(0.25f, CropGeometryUtils.getResizeScale(4000, 3000, 1000, 1000), DELTA);
+        assertEquals(0.5f, CropGeometryUtils.getResizeScale(2000, 3000, 2000, 1500), DELTA);
+        assertEquals(0.5f, CropGeometryUtils.getResizeScale(2000, 500, 1000, 1000), DELTA);
+    }
+
+    @Test
+    public void keepsBoundsWithoutResize() {
+        assertArrayEquals(new int[]{10, 20, 300, 400},
+                CropGeometryUtils.getScaledCropBounds(10, 20, 300, 400, 1));
+    }
+
+    @Test
+    public void scalesAndRoundsBounds() {
+        assertArrayEquals(new int[]{5, 10, 150, 200},
+                CropGeometryUtils.getScaledCropBounds(10, 20, 300, 400, 0.5f));
+        assertArrayEquals(new int[]{3, 4, 33, 33},
+                CropGeometryUtils.getScaledCropBounds(10, 11, 100, 100, 1 / 3f));
+    }
+
+    @Test
+    public void swapsSidesForExifRotation() {
+        assertArrayEquals(new float[]{4000, 3000}, CropGeometryUtils.getRotatedImageSize(4000, 3000, 0, 0), DELTA);
+        assertArrayEquals(new float[]{3000, 4000}, CropGeometryUtils.getRotatedImageSize(4000, 3000, 90, 0), DELTA);
+        assertArrayEquals(new float[]{4000, 3000}, CropGeometryUtils.getRotatedImageSize(4000, 3000, 180, 0), DELTA);
+        assertArrayEquals(new float[]{3000, 4000}, CropGeometryUtils.getRotatedImageSize(4000, 3000, 270, 0), DELTA);
+    }
+
+    @Test
+    public void growsBoundingBoxWithAngle() {
+        assertArrayEquals(new float[]{3000, 4000}, CropGeometryUtils.getRotatedImageSize(4000, 3000, 0, 90), DELTA);
+        assertArrayEquals(new float[]{4000, 3000}, CropGeometryUtils.getRotatedImageSize(4000, 3000, 0, -180), DELTA);
+
+        float side = (float) (1000 * Math.sqrt(2));
+        assertArrayEquals(new float[]{side, side}, CropGeometryUtils.getRotatedImageSize(1000, 1000, 0, 45), DELTA);
+        assertArrayEquals(new float[]{side, side}, CropGeometryUtils.getRotatedImageSize(1000, 1000, 90, -45), DELTA);
+    }
+
+    @Test
+    public void acceptsCropWithinImage() {
+        float[] imageSize = {4000, 3000};
+
+        assertTrue(CropGeometryUtils.isCropWithinImage(0, 0, 4000, 3000, imageSize));
+        assertTrue(CropGeometryUtils.isCropWithinImage(100, 200, 1100, 1200, imageSize));
+    }
+
+    @Test
+    public void allowsRoundingError() {
+        float[] imageSize = {4000, 3000};
+
+        // 1 pixel plus one for each 1000 pixels of the longer side
+        assertTrue(CropGeometryUtils.isCropWithinImage(-5, -5, 4005, 3005, imageSize));
+        assertFalse(CropGeometryUtils.isCropWithinImage(-6, 0, 4000, 3000, imageSize));
+        assertFalse(CropGeometryUtils.isCropWithinImage(0, 0, 4000, 3006, imageSize));
+    }
+
+    @Test
+    public void rejectsCropOutOfImage() {
+        float[] imageSize = CropGeometryUtils.getRotatedImageSize(4000, 3000, 90, 0);
+
+        assertFalse(CropGeometryUtils.isCropWithinImage(0, 0, 4000, 3000, imageSize));
+        assertTrue(CropGeometryUtils.isCropWithinImage(0, 0, 3000, 4000, imageSize));
+    }
+
+}
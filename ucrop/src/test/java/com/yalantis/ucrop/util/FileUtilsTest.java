@@ -0,0 +1,267 @@
+package com.yalantis.ucrop.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileUtilsTest {
+
+    // Larger than the copy buffer, so a stream is copied in several reads
+    private static final int LARGE_SIZE = 600 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void copiesWholeFile() throws IOException {
+        byte[] data = randomBytes(LARGE_SIZE);
+        File input = writeFile("input", data);
+        File output = mTemporaryFolder.newFile("output");
+
+        assertEquals(data.length, copy(input, output, 0, false));
+        assertArrayEquals(data, readFile(output));
+    }
+
+    @Test
+    public void copiesRestOfFileFromCurrentPosition() throws IOException {
+        byte[] data = randomBytes(LARGE_SIZE);
+        File input = writeFile("input", data);
+        File output = mTemporaryFolder.newFile("output");
+
+        assertEquals(data.length - 100, copy(input, output, 100, false));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), readFile(output));
+    }
+
+    @Test
+    public void copiesChannelOfUnknownSize() throws IOException {
+        byte[] data = randomBytes(LARGE_SIZE);
+        File input = writeFile("input", data);
+        File output = mTemporaryFolder.newFile("output");
+
+        assertEquals(data.length, copy(input, output, 0, true));
+        assertArrayEquals(data, readFile(output));
+    }
+
+    @Test
+    public void copiesEmptyFile() throws IOException {
+        File input = writeFile("input", new byte[0]);
+        File output = writeFile("output", randomBytes(10));
+
+        assertEquals(0, copy(input, output, 0, false));
+        assertEquals(0, output.length());
+    }
+
+    @Test
+    public void copyFileKeepsFileCopiedOntoItself() throws IOException {
+        byte[] data = randomBytes(1024);
+        File file = writeFile("image.jpg", data);
+
+        FileUtils.copyFile(file.getPath(), file.getPath());
+        FileUtils.copyFile(file.getPath(), file.getParent() + "/./image.jpg");
+
+        assertArrayEquals(data, readFile(file));
+    }
+
+    @Test
+    public void moveFileReplacesDestination() throws IOException {
+        byte[] data = randomBytes(1024);
+        File source = writeFile("source", data);
+        File destination = writeFile("destination", randomBytes(10));
+
+        FileUtils.moveFile(source.getPath(), destination.getPath());
+
+        assertFalse(source.exists());
+        assertArrayEquals(data, readFile(destination));
+    }
+
+    @Test
+    public void pathsDifferingInCaseAreSameFile() {
+        assertTrue(FileUtils.isSameFile("/storage/emulated/0/DCIM/a.jpg", "/storage/emulated/0/dcim/A.JPG"));
+    }
+
+    @Test
+    public void pathsResolvedToSameFileAreSameFile() throws IOException {
+        File file = writeFile("image.jpg", randomBytes(10));
+
+        assertTrue(FileUtils.isSameFile(file.getPath(), file.getParent() + "/../"
+                + file.getParentFile().getName() + "/image.jpg"));
+    }
+
+    @Test
+    public void differentFilesAreNotSameFile() throws IOException {
+        File fileA = writeFile("a.jpg", randomBytes(10));
+        File fileB = writeFile("b.jpg", randomBytes(10));
+
+        assertFalse(FileUtils.isSameFile(fileA.getPath(), fileB.getPath()));
+    }
+
+    @Test
+    public void missingFileIsNotSameFile() throws IOException {
+        File file = writeFile("a.jpg", randomBytes(10));
+
+        assertFalse(FileUtils.isSameFile(file.getPath(), file.getParent() + "/missing/../a.jpg"));
+    }
+
+    private static long copy(File input, File output, long position, boolean unknownSize) throws IOException {
+        FileInputStream inputStream = new FileInputStream(input);
+        FileOutputStream outputStream = new FileOutputStream(output);
+        try {
+            FileChannel inputChannel = inputStream.getChannel();
+            inputChannel.position(position);
+            if (unknownSize) {
+                inputChannel = new UnknownSizeChannel(inputChannel);
+            }
+            return FileUtils.copyChannel(inputChannel, outputStream.getChannel());
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+    }
+
+    private File writeFile(String name, byte[] data) throws IOException {
+        File file = mTemporaryFolder.newFile(name);
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(data);
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(data);
+            return data;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Channel that doesn't know its size, as a pipe of a streaming content provider.
+     */
+    private static class UnknownSizeChannel extends FileChannel {
+
+        private final FileChannel mChannel;
+
+        UnknownSizeChannel(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            throw new IOException("Size of a pipe is unknown");
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return mChannel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return mChannel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return mChannel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            mChannel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            mChannel.close();
+        }
+
+    }
+
+}
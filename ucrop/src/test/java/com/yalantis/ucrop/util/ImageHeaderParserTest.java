@@ -0,0 +1,460 @@
+package com.yalantis.ucrop.util;
+
+import com.yalantis.ucrop.model.ImageInfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ImageHeaderParserTest {
+
+    private static final int EXIF_FORMAT_SHORT = 3;
+    private static final int EXIF_FORMAT_LONG = 4;
+
+    // Offsets in the segment built by exifSegment(): "Exif\0\0" preamble, TIFF header, IFD0 at 8
+    private static final int IFD0_OFFSET = 6 + 8;
+    private static final int IMAGE_WIDTH_ENTRY = IFD0_OFFSET + 2;
+    private static final int IMAGE_LENGTH_ENTRY = IMAGE_WIDTH_ENTRY + 12;
+    private static final int ORIENTATION_ENTRY = IMAGE_LENGTH_ENTRY + 12;
+    private static final int IFD0_NEXT_POINTER = ORIENTATION_ENTRY + 24;
+    private static final int EXIF_IFD_OFFSET = IFD0_NEXT_POINTER + 4;
+    private static final int PIXEL_X_ENTRY = EXIF_IFD_OFFSET + 2;
+    private static final int PIXEL_Y_ENTRY = PIXEL_X_ENTRY + 12;
+    private static final int THUMBNAIL_IFD_OFFSET = PIXEL_Y_ENTRY + 12 + 4;
+    private static final int THUMBNAIL_OFFSET = THUMBNAIL_IFD_OFFSET + 2 + 24 + 4;
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, (byte) 0xFF, (byte) 0xD9};
+
+    // SOI and JFIF APP0
+    private static final int JPEG_APP1_OFFSET = 2 + 18;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void parsesPngSizeFromIhdr() throws IOException {
+        byte[] png = new Fixture()
+                .u8(0x89).ascii("PNG").u8(0x0D).u8(0x0A).u8(0x1A).u8(0x0A)
+                .be32(13).ascii("IHDR").be32(4032).be32(3024)
+                .toByteArray();
+
+        ImageInfo imageInfo = parse(png);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_PNG, imageInfo.getMimeType());
+        assertSize(4032, 3024, imageInfo);
+    }
+
+    @Test
+    public void leavesPngSizeUnknownWithoutIhdr() throws IOException {
+        byte[] png = new Fixture()
+                .u8(0x89).ascii("PNG").u8(0x0D).u8(0x0A).u8(0x1A).u8(0x0A)
+                .be32(13).ascii("IDAT").be32(4032).be32(3024)
+                .toByteArray();
+
+        ImageInfo imageInfo = parse(png);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_PNG, imageInfo.getMimeType());
+        assertSize(-1, -1, imageInfo);
+    }
+
+    @Test
+    public void parsesGifLogicalScreenSize() throws IOException {
+        byte[] gif = new Fixture().ascii("GIF89a").le16(640).le16(480).toByteArray();
+
+        ImageInfo imageInfo = parse(gif);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_GIF, imageInfo.getMimeType());
+        assertSize(640, 480, imageInfo);
+    }
+
+    @Test
+    public void parsesLossyWebpSizeIgnoringScaleBits() throws IOException {
+        byte[] webp = webp("VP8 ", new Fixture()
+                .u8(0x30).u8(0x01).u8(0x00)
+                .u8(0x9D).u8(0x01).u8(0x2A)
+                .le16(0x4000 | 1920).le16(0xC000 | 1080)
+                .toByteArray());
+
+        ImageInfo imageInfo = parse(webp);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_WEBP, imageInfo.getMimeType());
+        assertSize(1920, 1080, imageInfo);
+    }
+
+    @Test
+    public void leavesLossyWebpSizeUnknownWithoutStartCode() throws IOException {
+        byte[] webp = webp("VP8 ", new Fixture()
+                .u8(0x30).u8(0x01).u8(0x00)
+                .u8(0x9D).u8(0x01).u8(0x2B)
+                .le16(1920).le16(1080)
+                .toByteArray());
+
+        assertSize(-1, -1, parse(webp));
+    }
+
+    @Test
+    public void parsesLosslessWebpSize() throws IOException {
+        byte[] webp = webp("VP8L", new Fixture()
+                .u8(0x2F).le32((400 - 1) | (300 - 1) << 14)
+                .toByteArray());
+
+        ImageInfo imageInfo = parse(webp);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_WEBP, imageInfo.getMimeType());
+        assertSize(400, 300, imageInfo);
+    }
+
+    @Test
+    public void parsesExtendedWebpCanvasSize() throws IOException {
+        byte[] webp = webp("VP8X", new Fixture()
+                .u8(0x10).u8(0).u8(0).u8(0)
+                .le24(20000 - 1).le24(100 - 1)
+                .toByteArray());
+
+        ImageInfo imageInfo = parse(webp);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_WEBP, imageInfo.getMimeType());
+        assertSize(20000, 100, imageInfo);
+    }
+
+    @Test
+    public void parsesLargestHeifSpatialExtent() throws IOException {
+        byte[] heif = heif("heic", new String[]{"mif1", "heic"},
+                ispe(512, 512), ispe(4032, 3024), ispe(320, 240));
+
+        ImageInfo imageInfo = parse(heif);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_HEIC, imageInfo.getMimeType());
+        assertSize(4032, 3024, imageInfo);
+    }
+
+    @Test
+    public void findsHeicBrandAmongCompatibleBrands() throws IOException {
+        byte[] heif = heif("isom", new String[]{"mp41", "heix"}, ispe(1280, 720));
+
+        ImageInfo imageInfo = parse(heif);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_HEIC, imageInfo.getMimeType());
+        assertSize(1280, 720, imageInfo);
+    }
+
+    @Test
+    public void detectsHeifByMajorBrand() throws IOException {
+        byte[] heif = heif("mif1", new String[]{"heic"}, ispe(1280, 720));
+
+        ImageInfo imageInfo = parse(heif);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_HEIF, imageInfo.getMimeType());
+        assertSize(1280, 720, imageInfo);
+    }
+
+    @Test
+    public void ignoresIsoMediaWithoutImageBrand() throws IOException {
+        byte[] mp4 = heif("isom", new String[]{"mp41"}, ispe(1280, 720));
+
+        ImageInfo imageInfo = parse(mp4);
+
+        assertNull(imageInfo.getMimeType());
+        assertSize(-1, -1, imageInfo);
+    }
+
+    @Test
+    public void leavesRotatedHeifSizeUnknown() throws IOException {
+        byte[] heif = heif("heic", new String[0],
+                ispe(4032, 3024), box("irot", new byte[]{1}));
+
+        ImageInfo imageInfo = parse(heif);
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_HEIC, imageInfo.getMimeType());
+        assertSize(-1, -1, imageInfo);
+    }
+
+    @Test
+    public void keepsHeifSizeWhenRotatedByHalfTurn() throws IOException {
+        byte[] heif = heif("heic", new String[0],
+                ispe(4032, 3024), box("irot", new byte[]{2}));
+
+        assertSize(4032, 3024, parse(heif));
+    }
+
+    @Test
+    public void readsExifSegmentWithPreamble() throws IOException {
+        byte[] exifSegment = exifSegment(6, true, 0);
+
+        byte[] result = new ImageHeaderParser(ByteBuffer.wrap(jpeg(exifSegment, true))).getExifSegment();
+
+        assertArrayEquals(exifSegment, result);
+    }
+
+    @Test
+    public void returnsNoExifSegmentWithoutApp1() throws IOException {
+        assertNull(new ImageHeaderParser(ByteBuffer.wrap(jpeg(null, true))).getExifSegment());
+    }
+
+    @Test
+    public void parsesJpegExifOrientationAndThumbnail() throws IOException {
+        ImageInfo imageInfo = parse(jpeg(exifSegment(6, true, 0), true));
+
+        assertEquals(ImageHeaderParser.MIME_TYPE_JPEG, imageInfo.getMimeType());
+        assertSize(4000, 3000, imageInfo);
+        assertEquals(6, imageInfo.getExifOrientation());
+        // APP1 marker and length, then the preamble precede the TIFF header
+        assertEquals(JPEG_APP1_OFFSET + 4 + THUMBNAIL_OFFSET, imageInfo.getThumbnailOffset());
+        assertEquals(THUMBNAIL.length, imageInfo.getThumbnailLength());
+    }
+
+    @Test
+    public void patchesOrientationAndSizeAndCutsThumbnail() {
+        byte[] exifSegment = exifSegment(6, true, 0);
+
+        int segmentLength = ImageHeaderParser.prepareExifSegment(exifSegment, 1200, 900);
+
+        assertEquals(THUMBNAIL_OFFSET, segmentLength);
+        ByteBuffer segment = ByteBuffer.wrap(exifSegment);
+        assertEquals(1200, segment.getInt(IMAGE_WIDTH_ENTRY + 8));
+        assertEquals(900, segment.getShort(IMAGE_LENGTH_ENTRY + 8));
+        assertEquals(1, segment.getShort(ORIENTATION_ENTRY + 8));
+        assertEquals(0, segment.getInt(IFD0_NEXT_POINTER));
+        assertEquals(1200, segment.getInt(PIXEL_X_ENTRY + 8));
+        assertEquals(900, segment.getShort(PIXEL_Y_ENTRY + 8));
+    }
+
+    @Test
+    public void widensShortDimensionThatDoesNotFit() {
+        byte[] exifSegment = exifSegment(1, false, 0);
+
+        ImageHeaderParser.prepareExifSegment(exifSegment, 1200, 70000);
+
+        ByteBuffer segment = ByteBuffer.wrap(exifSegment);
+        assertEquals(EXIF_FORMAT_LONG, segment.getShort(IMAGE_LENGTH_ENTRY + 2));
+        assertEquals(70000, segment.getInt(IMAGE_LENGTH_ENTRY + 8));
+    }
+
+    @Test
+    public void rejectsSegmentLongerThanApp1() {
+        // APP1 length field counts itself, so the payload is limited to 0xFFFF - 2 bytes
+        int baseLength = exifSegment(1, false, 0).length;
+
+        assertEquals(0xFFFD, ImageHeaderParser.prepareExifSegment(exifSegment(1, false, 0xFFFD - baseLength), 1, 1));
+        assertEquals(-1, ImageHeaderParser.prepareExifSegment(exifSegment(1, false, 0xFFFE - baseLength), 1, 1));
+    }
+
+    @Test
+    public void insertsExifSegmentAfterApp0() throws IOException {
+        byte[] image = jpeg(null, true);
+        File output = writeFile(image);
+        byte[] exifSegment = exifSegment(6, true, 0);
+        byte[] patchedSegment = exifSegment.clone();
+        int segmentLength = ImageHeaderParser.prepareExifSegment(patchedSegment, 1200, 900);
+
+        ImageHeaderParser.copyExif(exifSegment, 1200, 900, output.getPath());
+
+        byte[] result = Files.readAllBytes(output.toPath());
+        assertInserted(image, Arrays.copyOf(patchedSegment, segmentLength), JPEG_APP1_OFFSET, result);
+        assertFalse(new File(output.getPath() + ".exif").exists());
+
+        ImageInfo imageInfo = parse(result);
+        assertEquals(1, imageInfo.getExifOrientation());
+        assertFalse(imageInfo.hasThumbnail());
+        assertSize(4000, 3000, imageInfo);
+    }
+
+    @Test
+    public void insertsExifSegmentAfterSoiWithoutApp0() throws IOException {
+        byte[] image = jpeg(null, false);
+        File output = writeFile(image);
+        byte[] exifSegment = exifSegment(1, false, 0);
+
+        ImageHeaderParser.insertExifSegment(exifSegment, exifSegment.length, output.getPath());
+
+        assertInserted(image, exifSegment, 2, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void leavesNonJpegOutputIntact() throws IOException {
+        byte[] image = new Fixture().ascii("GIF89a").le16(640).le16(480).toByteArray();
+        File output = writeFile(image);
+        byte[] exifSegment = exifSegment(1, false, 0);
+
+        ImageHeaderParser.insertExifSegment(exifSegment, exifSegment.length, output.getPath());
+
+        assertArrayEquals(image, Files.readAllBytes(output.toPath()));
+    }
+
+    private static void assertInserted(byte[] image, byte[] segment, int offset, byte[] result) {
+        assertEquals(image.length + 4 + segment.length, result.length);
+        assertArrayEquals(Arrays.copyOf(image, offset), Arrays.copyOf(result, offset));
+
+        ByteBuffer app1 = ByteBuffer.wrap(result, offset, 4);
+        assertEquals(0xFFE1, app1.getShort() & 0xFFFF);
+        assertEquals(segment.length + 2, app1.getShort() & 0xFFFF);
+        assertArrayEquals(segment, Arrays.copyOfRange(result, offset + 4, offset + 4 + segment.length));
+        assertArrayEquals(Arrays.copyOfRange(image, offset, image.length),
+                Arrays.copyOfRange(result, offset + 4 + segment.length, result.length));
+    }
+
+    private File writeFile(byte[] data) throws IOException {
+        File file = mTemporaryFolder.newFile("output.jpg");
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static ImageInfo parse(byte[] image) throws IOException {
+        return new ImageHeaderParser(ByteBuffer.wrap(image)).getImageInfo();
+    }
+
+    private static void assertSize(int width, int height, ImageInfo imageInfo) {
+        assertEquals(width, imageInfo.getWidth());
+        assertEquals(height, imageInfo.getHeight());
+    }
+
+    private static byte[] webp(String chunkType, byte[] chunk) {
+        return new Fixture()
+                .ascii("RIFF").le32(4 + 8 + chunk.length).ascii("WEBP")
+                .ascii(chunkType).le32(chunk.length).bytes(chunk)
+                .toByteArray();
+    }
+
+    /**
+     * ftyp box followed by meta box with an hdlr box before the property container,
+     * so the parser has to skip boxes it doesn't need.
+     */
+    private static byte[] heif(String majorBrand, String[] compatibleBrands, byte[]... properties) {
+        Fixture ftyp = new Fixture().ascii(majorBrand).be32(0);
+        for (String brand : compatibleBrands) {
+            ftyp.ascii(brand);
+        }
+
+        Fixture ipco = new Fixture();
+        for (byte[] property : properties) {
+            ipco.bytes(property);
+        }
+        byte[] iprp = box("iprp", box("ipco", ipco.toByteArray()));
+        byte[] hdlr = box("hdlr", new Fixture().be32(0).be32(0).ascii("pict").be32(0).be32(0).be32(0).u8(0).toByteArray());
+        byte[] meta = box("meta", new Fixture().be32(0).bytes(hdlr).bytes(iprp).toByteArray());
+
+        return new Fixture().bytes(box("ftyp", ftyp.toByteArray())).bytes(meta).toByteArray();
+    }
+
+    private static byte[] ispe(int width, int height) {
+        return box("ispe", new Fixture().be32(0).be32(width).be32(height).toByteArray());
+    }
+
+    private static byte[] box(String type, byte[] content) {
+        return new Fixture().be32(8 + content.length).ascii(type).bytes(content).toByteArray();
+    }
+
+    /**
+     * 4000x3000 baseline JPEG header, entropy coded data is left out.
+     *
+     * @param exifSegment - APP1 payload or null
+     */
+    private static byte[] jpeg(byte[] exifSegment, boolean withJfif) {
+        Fixture jpeg = new Fixture().be16(0xFFD8);
+        if (withJfif) {
+            jpeg.be16(0xFFE0).be16(16).ascii("JFIF").u8(0).be16(0x0101).u8(0).be16(1).be16(1).u8(0).u8(0);
+        }
+        if (exifSegment != null) {
+            jpeg.be16(0xFFE1).be16(exifSegment.length + 2).bytes(exifSegment);
+        }
+        jpeg.be16(0xFFC0).be16(11).u8(8).be16(3000).be16(4000).u8(1).u8(1).u8(0x11).u8(0);
+        jpeg.be16(0xFFDA).be16(8).u8(1).u8(1).u8(0).u8(0).u8(0x3F).u8(0);
+        return jpeg.u8(0x55).u8(0xAA).be16(0xFFD9).toByteArray();
+    }
+
+    /**
+     * Big endian exif with dimensions in IFD0 and Exif IFD, height tags are SHORT.
+     * Thumbnail IFD1 and thumbnail data follow Exif IFD, or padding is appended instead.
+     */
+    private static byte[] exifSegment(int orientation, boolean withThumbnail, int padding) {
+        Fixture exif = new Fixture().ascii("Exif").u8(0).u8(0)
+                .ascii("MM").be16(0x2A).be32(IFD0_OFFSET - 6);
+
+        exif.be16(4);
+        tag(exif, 0x0100, EXIF_FORMAT_LONG, 4000);
+        tag(exif, 0x0101, EXIF_FORMAT_SHORT, 3000);
+        tag(exif, 0x0112, EXIF_FORMAT_SHORT, orientation);
+        tag(exif, 0x8769, EXIF_FORMAT_LONG, EXIF_IFD_OFFSET - 6);
+        exif.be32(withThumbnail ? THUMBNAIL_IFD_OFFSET - 6 : 0);
+
+        exif.be16(2);
+        tag(exif, 0xA002, EXIF_FORMAT_LONG, 4000);
+        tag(exif, 0xA003, EXIF_FORMAT_SHORT, 3000);
+        exif.be32(0);
+
+        if (withThumbnail) {
+            exif.be16(2);
+            tag(exif, 0x0201, EXIF_FORMAT_LONG, THUMBNAIL_OFFSET - 6);
+            tag(exif, 0x0202, EXIF_FORMAT_LONG, THUMBNAIL.length);
+            exif.be32(0);
+            exif.bytes(THUMBNAIL);
+        }
+        return exif.bytes(new byte[padding]).toByteArray();
+    }
+
+    private static void tag(Fixture exif, int tagType, int format, int value) {
+        exif.be16(tagType).be16(format).be32(1);
+        if (format == EXIF_FORMAT_SHORT) {
+            exif.be16(value).be16(0);
+        } else {
+            exif.be32(value);
+        }
+    }
+
+    static class Fixture {
+
+        private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+
+        Fixture u8(int value) {
+            mOutput.write(value);
+            return this;
+        }
+
+        Fixture be16(int value) {
+            return u8(value >> 8).u8(value);
+        }
+
+        Fixture be32(long value) {
+            return be16((int) (value >> 16)).be16((int) value);
+        }
+
+        Fixture le16(int value) {
+            return u8(value).u8(value >> 8);
+        }
+
+        Fixture le24(int value) {
+            return le16(value).u8(value >> 16);
+        }
+
+        Fixture le32(int value) {
+            return le16(value).le16(value >> 16);
+        }
+
+        Fixture ascii(String value) {
+            return bytes(value.getBytes(Charset.forName("US-ASCII")));
+        }
+
+        Fixture bytes(byte[] value) {
+            mOutput.write(value, 0, value.length);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return mOutput.toByteArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.yalantis.ucrop.util;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SizeBucketPoolTest {
+
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final List<Object> mEvicted = new ArrayList<>();
+
+    @Test
+    public void emptyPoolHasNothing() {
+        assertNull(createPool(1000).get(100));
+    }
+
+    @Test
+    public void servesItemOfSameSize() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object item = new Object();
+
+        pool.put(item, 100);
+
+        assertSame(item, pool.get(100));
+        assertNull(pool.get(100));
+        assertEquals(0, pool.getCurrentSize());
+    }
+
+    @Test
+    public void servesSmallestItemThatIsLargeEnough() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object small = new Object();
+        Object medium = new Object();
+        Object large = new Object();
+
+        pool.put(large, 300);
+        pool.put(small, 100);
+        pool.put(medium, 200);
+
+        assertSame(medium, pool.get(150));
+        assertSame(large, pool.get(150));
+        assertNull(pool.get(150));
+        assertEquals(100, pool.getCurrentSize());
+    }
+
+    @Test
+    public void doesNotServeMuchLargerItem() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object item = new Object();
+
+        pool.put(item, 400);
+
+        assertNull(pool.get(99));
+        assertSame(item, pool.get(100));
+    }
+
+    @Test
+    public void servesLastPutItemOfBucketFirst() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object first = new Object();
+        Object second = new Object();
+
+        pool.put(first, 100);
+        pool.put(second, 100);
+
+        assertSame(second, pool.get(100));
+        assertSame(first, pool.get(100));
+    }
+
+    @Test
+    public void ignoresItemPutTwice() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object item = new Object();
+
+        pool.put(item, 100);
+        pool.put(item, 100);
+
+        assertEquals(100, pool.getCurrentSize());
+        assertSame(item, pool.get(100));
+        assertNull(pool.get(100));
+    }
+
+    @Test
+    public void ignoresItemLargerThanPool() {
+        SizeBucketPool<Object> pool = createPool(1000);
+
+        pool.put(new Object(), 1001);
+
+        assertEquals(0, pool.getCurrentSize());
+        assertEquals(0, mEvicted.size());
+    }
+
+    @Test
+    public void evictsLargestItemsOverMaxSize() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object small = new Object();
+        Object large = new Object();
+        Object medium = new Object();
+
+        pool.put(small, 200);
+        pool.put(large, 500);
+        pool.put(medium, 300);
+
+        assertEquals(0, mEvicted.size());
+
+        Object another = new Object();
+        pool.put(another, 300);
+
+        assertEquals(Arrays.asList(large), mEvicted);
+        assertEquals(800, pool.getCurrentSize());
+    }
+
+    @Test
+    public void clearEvictsEverything() {
+        SizeBucketPool<Object> pool = createPool(1000);
+        Object small = new Object();
+        Object large = new Object();
+
+        pool.put(small, 100);
+        pool.put(large, 200);
+        pool.clear();
+
+        assertEquals(Arrays.asList(large, small), mEvicted);
+        assertEquals(0, pool.getCurrentSize());
+        assertNull(pool.get(100));
+    }
+
+    @Test
+    public void doesNotOverflowForLargeRequests() {
+        SizeBucketPool<Object> pool = createPool(Long.MAX_VALUE);
+        Object item = new Object();
+
+        pool.put(item, Integer.MAX_VALUE);
+
+        assertSame(item, pool.get(Integer.MAX_VALUE / 2));
+    }
+
+    private SizeBucketPool<Object> createPool(long maxSize) {
+        return new SizeBucketPool<Object>(maxSize, MAX_SIZE_MULTIPLE) {
+            @Override
+            void onEvicted(@NonNull Object item) {
+                mEvicted.add(item);
+            }
+        };
+    }
+
+}